@@ -31,6 +31,12 @@ android {
             )
         }
     }
+    // 本地单元测试中android.util.Log等桩方法返回默认值，不抛出"not mocked"
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+        // 把 -Dbenchmark=true 传给测试JVM，用于按需运行基准测试
+        unitTests.all { it.systemProperty("benchmark", System.getProperty("benchmark") ?: "false") }
+    }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
@@ -56,6 +62,8 @@ dependencies {
     implementation("androidx.core:core:1.8.0")
     
     testImplementation("junit:junit:4.13.2")
+    // 本地单元测试中android.jar的org.json只是桩实现，需要真实实现
+    testImplementation("org.json:json:20231013")
     androidTestImplementation("androidx.test.ext:junit:1.1.3")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.4.0")
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 自适应心跳间隔策略
+ * 以配置的心跳间隔为基准：
+ * - 链路不稳（发布RTT过高、发布失败或近期断线重连）时收紧到下限；
+ * - 正在下载或播放内容时取基准的一半；
+ * - 持续空闲且链路稳定时，每次心跳把间隔放大1.5倍，直到上限。
+ * 任何活动或异常都会立即把间隔拉回，不需要等放大后的长间隔到期。
+ */
+public class AdaptiveHeartbeatPolicy {
+
+    private static final String TAG = "AdaptiveHeartbeat";
+
+    // 连续稳定心跳达到此次数后才开始放大间隔
+    private static final int STABLE_TICKS_BEFORE_STRETCH = 3;
+    private static final double STRETCH_FACTOR = 1.5;
+    // 发布RTT超过此值视为链路不稳
+    private static final long FLAKY_RTT_MS = 3000;
+    // 断线或发布失败后保持收紧的时间
+    private static final long FLAKY_HOLD_MS = 10 * 60 * 1000;
+    // 下载/播放开始后视为活动的时间（没有收到完成状态时）
+    private static final long ACTIVE_HOLD_MS = 10 * 60 * 1000;
+    // MQTT keepalive上限，与心跳上限无关：半开连接最迟约两个keepalive周期后被发现
+    private static final int MAX_KEEPALIVE_SECONDS = 60;
+
+    private long minMs;
+    private long maxMs;
+    private long baseMs;
+
+    private long currentMs;
+    private int stableTicks = 0;
+    private long lastRttMs = -1;
+    private long flakyUntil = 0;
+    private long activeUntil = 0;
+    private int reconnectCount = 0;
+    private String reason = "base";
+
+    public AdaptiveHeartbeatPolicy(long baseMs, long minMs, long maxMs) {
+        setBounds(baseMs, minMs, maxMs);
+        this.currentMs = this.baseMs;
+    }
+
+    /**
+     * 更新基准间隔和上下限（远程配置下发时调用）
+     */
+    public synchronized void setBounds(long baseMs, long minMs, long maxMs) {
+        this.minMs = Math.max(1000, minMs);
+        this.maxMs = Math.max(this.minMs, maxMs);
+        this.baseMs = clamp(baseMs);
+        this.currentMs = clamp(currentMs > 0 ? currentMs : this.baseMs);
+    }
+
+    /**
+     * 记录一次心跳发布的往返时间（入队到收到ACK）
+     */
+    public synchronized void onPublishRtt(long rttMs) {
+        lastRttMs = rttMs;
+        if (rttMs >= FLAKY_RTT_MS) {
+            markFlaky();
+        }
+    }
+
+    public synchronized void onPublishFailed() {
+        markFlaky();
+    }
+
+    public synchronized void onConnectionLost() {
+        reconnectCount++;
+        markFlaky();
+    }
+
+    /**
+     * 内容状态变化：downloading/playing视为活动，completed/error结束活动
+     */
+    public synchronized void onContentStatus(String status) {
+        if ("downloading".equals(status) || "playing".equals(status)) {
+            activeUntil = SystemClock.elapsedRealtime() + ACTIVE_HOLD_MS;
+            stableTicks = 0;
+        } else if ("completed".equals(status) || "error".equals(status)) {
+            activeUntil = 0;
+        }
+    }
+
+    private void markFlaky() {
+        flakyUntil = SystemClock.elapsedRealtime() + FLAKY_HOLD_MS;
+        stableTicks = 0;
+    }
+
+    /**
+     * 计算下一次心跳的间隔，每次心跳后调用一次
+     */
+    public synchronized long nextIntervalMs() {
+        long now = SystemClock.elapsedRealtime();
+        if (now < flakyUntil) {
+            currentMs = minMs;
+            reason = "flaky";
+        } else if (now < activeUntil) {
+            currentMs = clamp(baseMs / 2);
+            reason = "active";
+        } else if (++stableTicks > STABLE_TICKS_BEFORE_STRETCH) {
+            currentMs = clamp(Math.max(baseMs, (long) (currentMs * STRETCH_FACTOR)));
+            reason = "idle";
+        } else {
+            currentMs = baseMs;
+            reason = "base";
+        }
+        return currentMs;
+    }
+
+    /**
+     * 当前状态是否需要比现有间隔更快的心跳（用于在长间隔中途立即收紧）
+     */
+    public synchronized boolean shouldTighten(long scheduledMs) {
+        long now = SystemClock.elapsedRealtime();
+        if (now < flakyUntil) return scheduledMs > minMs;
+        if (now < activeUntil) return scheduledMs > clamp(baseMs / 2);
+        return false;
+    }
+
+    /**
+     * MQTT keepalive（秒）：略大于心跳上限，但不超过MAX_KEEPALIVE_SECONDS。
+     * 心跳拉长到超过keepalive时由Paho在空闲时补发PINGREQ，代价很小，换来半开连接能在一两分钟内被发现
+     */
+    public synchronized int keepAliveSeconds() {
+        return (int) Math.min(MAX_KEEPALIVE_SECONDS, (maxMs + 15000) / 1000);
+    }
+
+    private long clamp(long value) {
+        return Math.max(minMs, Math.min(maxMs, value));
+    }
+
+    /**
+     * 获取策略指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("intervalMs", currentMs);
+            metrics.put("reason", reason);
+            metrics.put("minMs", minMs);
+            metrics.put("maxMs", maxMs);
+            metrics.put("lastRttMs", lastRttMs);
+            metrics.put("reconnects", reconnectCount);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建心跳策略指标失败", e);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,310 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 代理选择器
+ * 维护有序的代理地址列表，并行探测各代理的TCP建连耗时，连接时按以下顺序给出候选：
+ * 探测可达且未处于失败冷却期的代理按延迟从低到高，其后是冷却期内的代理；探测不可达的代理不参与。
+ * 连接失败的代理进入指数增长的冷却期，并标记需要重新探测，不可达的代理只消耗一次探测超时而不是一次完整的连接超时。
+ * 只有一个代理时不探测，直接返回该地址。
+ */
+public class BrokerSelector {
+
+    private static final String TAG = "BrokerSelector";
+
+    private static final int MAX_PROBE_THREADS = 4;
+    // 探测结果的有效期，超过后下次连接前重新探测
+    private static final long PROBE_TTL_MS = 10 * 60 * 1000;
+    private static final long COOLDOWN_BASE_MS = 30 * 1000;
+    private static final long COOLDOWN_MAX_MS = 5 * 60 * 1000;
+
+    /**
+     * 单个代理的探测和健康状态
+     */
+    private static class Broker {
+        final String url;
+        final String host;
+        final int port;
+        long latencyMs = -1;      // 最近一次探测的建连耗时，-1表示未探测或不可达
+        boolean reachable = true; // 未探测时按可达处理
+        int failures = 0;         // 连续连接失败次数
+        long cooldownUntil = 0;
+        long connects = 0;
+
+        Broker(String url, String host, int port) {
+            this.url = url;
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    private final List<Broker> brokers = new ArrayList<>();
+    private final long probeTimeoutMs;
+    private ExecutorService probeExecutor;
+    private long lastProbeTime = 0;
+    private boolean probeRequested = true;
+    private String currentUrl;
+    private long probeCount = 0;
+    private long failoverCount = 0;
+
+    /**
+     * @param probeTimeoutMs 单个代理的TCP建连超时；所有代理并行探测，加上域名解析总耗时不超过此值的两倍
+     */
+    public BrokerSelector(long probeTimeoutMs) {
+        this.probeTimeoutMs = Math.max(100, probeTimeoutMs);
+    }
+
+    /**
+     * 设置代理地址列表（tcp://host:port），列表未变化时保留已有的探测结果
+     */
+    public synchronized void setBrokers(List<String> urls) {
+        List<String> existing = new ArrayList<>();
+        for (Broker broker : brokers) {
+            existing.add(broker.url);
+        }
+        if (existing.equals(urls)) return;
+
+        brokers.clear();
+        for (String url : urls) {
+            try {
+                URI uri = new URI(url);
+                if (uri.getHost() == null || uri.getPort() < 0) {
+                    Log.w(TAG, "忽略无效的代理地址: " + url);
+                    continue;
+                }
+                brokers.add(new Broker(url, uri.getHost(), uri.getPort()));
+            } catch (Exception e) {
+                Log.w(TAG, "忽略无效的代理地址: " + url);
+            }
+        }
+        probeRequested = true;
+        Log.i(TAG, "代理列表: " + urls);
+    }
+
+    /**
+     * 返回本次连接尝试的候选地址，按优先级排序；必要时先并行探测（阻塞）。
+     * 所有代理都探测不可达时返回空列表，下次调用会重新探测
+     */
+    public List<String> candidates() {
+        synchronized (this) {
+            if (brokers.size() == 1) {
+                return Collections.singletonList(brokers.get(0).url);
+            }
+        }
+        if (needsProbe()) {
+            probeAll();
+        }
+        synchronized (this) {
+            final long now = SystemClock.elapsedRealtime();
+            List<Broker> ordered = new ArrayList<>();
+            for (Broker broker : brokers) {
+                if (broker.reachable) {
+                    ordered.add(broker);
+                }
+            }
+            Collections.sort(ordered, new Comparator<Broker>() {
+                @Override
+                public int compare(Broker a, Broker b) {
+                    boolean coolingA = a.cooldownUntil > now;
+                    boolean coolingB = b.cooldownUntil > now;
+                    if (coolingA != coolingB) return coolingA ? 1 : -1;
+                    // 未探测的排在已探测的之后，延迟相同保持配置顺序（排序是稳定的）
+                    long latencyA = a.latencyMs < 0 ? Long.MAX_VALUE : a.latencyMs;
+                    long latencyB = b.latencyMs < 0 ? Long.MAX_VALUE : b.latencyMs;
+                    return latencyA < latencyB ? -1 : (latencyA == latencyB ? 0 : 1);
+                }
+            });
+            List<String> urls = new ArrayList<>();
+            for (Broker broker : ordered) {
+                urls.add(broker.url);
+            }
+            return urls;
+        }
+    }
+
+    private synchronized boolean needsProbe() {
+        return probeRequested || SystemClock.elapsedRealtime() - lastProbeTime > PROBE_TTL_MS;
+    }
+
+    /**
+     * 并行探测所有代理的TCP建连耗时
+     */
+    private void probeAll() {
+        final List<Broker> targets;
+        ExecutorService executor;
+        synchronized (this) {
+            targets = new ArrayList<>(brokers);
+            if (probeExecutor == null) {
+                probeExecutor = Executors.newFixedThreadPool(MAX_PROBE_THREADS,
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "broker-probe");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+            executor = probeExecutor;
+        }
+
+        List<Callable<Long>> probes = new ArrayList<>();
+        for (final Broker broker : targets) {
+            probes.add(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return probe(broker);
+                }
+            });
+        }
+        List<Long> results = new ArrayList<>();
+        try {
+            List<Future<Long>> futures =
+                    executor.invokeAll(probes, probeTimeoutMs * 2, TimeUnit.MILLISECONDS);
+            for (Future<Long> future : futures) {
+                Long latency = -1L;
+                if (!future.isCancelled()) {
+                    try {
+                        latency = future.get();
+                    } catch (Exception e) {
+                        latency = -1L;
+                    }
+                }
+                results.add(latency);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (this) {
+            StringBuilder summary = new StringBuilder();
+            boolean anyReachable = false;
+            for (int i = 0; i < targets.size(); i++) {
+                Broker broker = targets.get(i);
+                long latency = results.get(i);
+                broker.latencyMs = latency;
+                broker.reachable = latency >= 0;
+                anyReachable |= broker.reachable;
+                summary.append(broker.url).append('=').append(latency >= 0 ? latency + "ms" : "不可达").append(' ');
+            }
+            lastProbeTime = SystemClock.elapsedRealtime();
+            // 全部不可达（代理重启中、网络刚恢复）时不缓存结果，下次重试重新探测，否则要等到结果过期才会再试
+            probeRequested = !anyReachable;
+            probeCount++;
+            Log.i(TAG, "代理探测结果: " + summary.toString().trim());
+        }
+    }
+
+    /**
+     * TCP建连耗时，失败或超时返回-1
+     */
+    private long probe(Broker broker) {
+        Socket socket = new Socket();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            socket.connect(new InetSocketAddress(broker.host, broker.port), (int) probeTimeoutMs);
+            return SystemClock.elapsedRealtime() - start;
+        } catch (Exception e) {
+            return -1;
+        } finally {
+            try {
+                socket.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    /**
+     * 连接成功
+     */
+    public synchronized void onConnected(String url) {
+        Broker broker = find(url);
+        if (broker != null) {
+            broker.failures = 0;
+            broker.cooldownUntil = 0;
+            broker.connects++;
+        }
+        if (currentUrl != null && !currentUrl.equals(url)) {
+            failoverCount++;
+            Log.i(TAG, "代理切换: " + currentUrl + " -> " + url);
+        }
+        currentUrl = url;
+    }
+
+    /**
+     * 连接失败：进入冷却期，下次连接前重新探测
+     */
+    public synchronized void onConnectFailed(String url) {
+        Broker broker = find(url);
+        if (broker != null) {
+            broker.failures++;
+            long cooldown = Math.min(COOLDOWN_MAX_MS, COOLDOWN_BASE_MS << Math.min(broker.failures - 1, 10));
+            broker.cooldownUntil = SystemClock.elapsedRealtime() + cooldown;
+        }
+        probeRequested = true;
+    }
+
+    /**
+     * 已建立的连接丢失：下次连接前重新探测，可能切换到其他代理
+     */
+    public synchronized void onConnectionLost() {
+        probeRequested = true;
+    }
+
+    private Broker find(String url) {
+        for (Broker broker : brokers) {
+            if (broker.url.equals(url)) return broker;
+        }
+        return null;
+    }
+
+    public synchronized String getCurrentUrl() {
+        return currentUrl;
+    }
+
+    /**
+     * 获取代理指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("current", currentUrl);
+            metrics.put("probes", probeCount);
+            metrics.put("failovers", failoverCount);
+            JSONArray list = new JSONArray();
+            for (Broker broker : brokers) {
+                JSONObject item = new JSONObject();
+                item.put("url", broker.url);
+                item.put("latencyMs", broker.latencyMs);
+                item.put("failures", broker.failures);
+                item.put("connects", broker.connects);
+                list.put(item);
+            }
+            metrics.put("brokers", list);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建代理指标失败", e);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,323 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * CBOR（RFC 7049）编解码器
+ * 直接把JSONObject树写成紧凑的二进制，不经过中间字符串；
+ * 字符串按UTF-8逐字符写出，整数按最短长度编码。
+ * 只支持定长的map/array/text，足够覆盖心跳、状态和内容响应消息。
+ */
+public class CborCodec implements PayloadCodec {
+
+    public static final String NAME = "cbor";
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_SIMPLE = 7;
+
+    private static final int SIMPLE_FALSE = 20;
+    private static final int SIMPLE_TRUE = 21;
+    private static final int SIMPLE_NULL = 22;
+    private static final int FLOAT16 = 25;
+    private static final int FLOAT32 = 26;
+    private static final int FLOAT64 = 27;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    // ---------------- 编码 ----------------
+
+    @Override
+    public byte[] encode(JSONObject message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try {
+            writeValue(out, message);
+        } catch (JSONException e) {
+            throw new IOException("CBOR编码失败: " + e.getMessage());
+        }
+        return out.toByteArray();
+    }
+
+    private void writeValue(ByteArrayOutputStream out, Object value) throws JSONException, IOException {
+        if (value == null || value == JSONObject.NULL) {
+            out.write((MAJOR_SIMPLE << 5) | SIMPLE_NULL);
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            writeHead(out, MAJOR_MAP, object.length());
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                writeText(out, key);
+                writeValue(out, object.get(key));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            writeHead(out, MAJOR_ARRAY, array.length());
+            for (int i = 0; i < array.length(); i++) {
+                writeValue(out, array.get(i));
+            }
+        } else if (value instanceof String) {
+            writeText(out, (String) value);
+        } else if (value instanceof Boolean) {
+            out.write((MAJOR_SIMPLE << 5) | (((Boolean) value) ? SIMPLE_TRUE : SIMPLE_FALSE));
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            long v = ((Number) value).longValue();
+            if (v >= 0) {
+                writeHead(out, MAJOR_UNSIGNED, v);
+            } else {
+                writeHead(out, MAJOR_NEGATIVE, -1 - v);
+            }
+        } else if (value instanceof Float) {
+            out.write((MAJOR_SIMPLE << 5) | FLOAT32);
+            writeBigEndian(out, Float.floatToIntBits((Float) value) & 0xFFFFFFFFL, 4);
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            float f = (float) d;
+            if (f == d) {
+                // 能无损表示为float32时节省4字节
+                out.write((MAJOR_SIMPLE << 5) | FLOAT32);
+                writeBigEndian(out, Float.floatToIntBits(f) & 0xFFFFFFFFL, 4);
+            } else {
+                out.write((MAJOR_SIMPLE << 5) | FLOAT64);
+                writeBigEndian(out, Double.doubleToLongBits(d), 8);
+            }
+        } else {
+            writeText(out, value.toString());
+        }
+    }
+
+    /**
+     * 写入类型头：主类型 + 最短长度的参数
+     */
+    private static void writeHead(ByteArrayOutputStream out, int major, long argument) {
+        int type = major << 5;
+        if (argument < 24) {
+            out.write(type | (int) argument);
+        } else if (argument <= 0xFF) {
+            out.write(type | 24);
+            out.write((int) argument);
+        } else if (argument <= 0xFFFF) {
+            out.write(type | 25);
+            writeBigEndian(out, argument, 2);
+        } else if (argument <= 0xFFFFFFFFL) {
+            out.write(type | 26);
+            writeBigEndian(out, argument, 4);
+        } else {
+            out.write(type | 27);
+            writeBigEndian(out, argument, 8);
+        }
+    }
+
+    private static void writeBigEndian(ByteArrayOutputStream out, long value, int bytes) {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xFF);
+        }
+    }
+
+    /**
+     * 写入UTF-8文本，不创建中间byte[]
+     */
+    private static void writeText(ByteArrayOutputStream out, String text) {
+        int length = text.length();
+        long utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+
+        writeHead(out, MAJOR_TEXT, utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.write(0xF0 | (codePoint >> 18));
+                out.write(0x80 | ((codePoint >> 12) & 0x3F));
+                out.write(0x80 | ((codePoint >> 6) & 0x3F));
+                out.write(0x80 | (codePoint & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    // ---------------- 解码 ----------------
+
+    @Override
+    public JSONObject decode(byte[] payload) throws IOException {
+        Reader reader = new Reader(payload);
+        try {
+            Object value = reader.readValue();
+            if (!(value instanceof JSONObject)) {
+                throw new IOException("CBOR顶层不是map");
+            }
+            return (JSONObject) value;
+        } catch (JSONException e) {
+            throw new IOException("CBOR解码失败: " + e.getMessage());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("CBOR数据不完整");
+        }
+    }
+
+    /**
+     * 判断载荷是否可能是CBOR map（首字节主类型为5）
+     */
+    public static boolean looksLikeCbor(byte[] payload) {
+        return payload.length > 0 && ((payload[0] & 0xFF) >> 5) == MAJOR_MAP;
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int pos = 0;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        Object readValue() throws IOException, JSONException {
+            int initial = data[pos++] & 0xFF;
+            int major = initial >> 5;
+            int info = initial & 0x1F;
+
+            if (major == MAJOR_SIMPLE) {
+                switch (info) {
+                    case SIMPLE_FALSE:
+                        return Boolean.FALSE;
+                    case SIMPLE_TRUE:
+                        return Boolean.TRUE;
+                    case SIMPLE_NULL:
+                        return JSONObject.NULL;
+                    case FLOAT16:
+                        return (double) halfToFloat((int) readBigEndian(2));
+                    case FLOAT32:
+                        return (double) Float.intBitsToFloat((int) readBigEndian(4));
+                    case FLOAT64:
+                        return Double.longBitsToDouble(readBigEndian(8));
+                    default:
+                        throw new IOException("不支持的CBOR简单值: " + info);
+                }
+            }
+
+            long argument = readArgument(info);
+            switch (major) {
+                case MAJOR_UNSIGNED:
+                    return narrow(argument);
+                case MAJOR_NEGATIVE:
+                    return narrow(-1 - argument);
+                case MAJOR_TEXT: {
+                    int length = checkLength(argument);
+                    String text = new String(data, pos, length, "UTF-8");
+                    pos += length;
+                    return text;
+                }
+                case MAJOR_ARRAY: {
+                    int length = checkLength(argument);
+                    JSONArray array = new JSONArray();
+                    for (int i = 0; i < length; i++) {
+                        array.put(readValue());
+                    }
+                    return array;
+                }
+                case MAJOR_MAP: {
+                    int length = checkLength(argument);
+                    JSONObject object = new JSONObject();
+                    for (int i = 0; i < length; i++) {
+                        Object key = readValue();
+                        if (!(key instanceof String)) {
+                            throw new IOException("CBOR map的键必须是字符串");
+                        }
+                        object.put((String) key, readValue());
+                    }
+                    return object;
+                }
+                case MAJOR_BYTES:
+                default:
+                    throw new IOException("不支持的CBOR类型: " + major);
+            }
+        }
+
+        private long readArgument(int info) throws IOException {
+            if (info < 24) return info;
+            switch (info) {
+                case 24:
+                    return readBigEndian(1);
+                case 25:
+                    return readBigEndian(2);
+                case 26:
+                    return readBigEndian(4);
+                case 27:
+                    return readBigEndian(8);
+                default:
+                    throw new IOException("不支持不定长CBOR数据");
+            }
+        }
+
+        private long readBigEndian(int bytes) {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | (data[pos++] & 0xFF);
+            }
+            return value;
+        }
+
+        private int checkLength(long length) throws IOException {
+            if (length < 0 || length > data.length - pos) {
+                throw new IOException("CBOR长度越界: " + length);
+            }
+            return (int) length;
+        }
+
+        private static Object narrow(long value) {
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return (int) value;
+            }
+            return value;
+        }
+
+        private static float halfToFloat(int half) {
+            int sign = (half >> 15) & 0x1;
+            int exponent = (half >> 10) & 0x1F;
+            int mantissa = half & 0x3FF;
+            float value;
+            if (exponent == 0) {
+                value = (float) (mantissa * Math.pow(2, -24));
+            } else if (exponent == 31) {
+                value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+            } else {
+                value = (float) ((1024 + mantissa) * Math.pow(2, exponent - 25));
+            }
+            return sign == 1 ? -value : value;
+        }
+    }
+}
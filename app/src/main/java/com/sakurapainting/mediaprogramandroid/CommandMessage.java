@@ -0,0 +1,131 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 命令消息：{"type":"command","data":{"command":"restart",...参数}}
+ * 流式解码时只取出命令名并记录data在载荷中的位置，
+ * 参数对象只在处理器调用getData时才解析，大多数命令不需要参数。
+ * 每个工作线程复用一个实例。
+ */
+public class CommandMessage {
+
+    private static final String[] ENVELOPE_KEYS = {"data", "messageId", "timestamp"};
+    private static final int KEY_DATA = 0;
+    private static final int KEY_ENVELOPE_MESSAGE_ID = 1;
+    private static final int KEY_TIMESTAMP = 2;
+
+    private static final String[] DATA_KEYS = {"command", "messageId"};
+    private static final int KEY_COMMAND = 0;
+    private static final int KEY_MESSAGE_ID = 1;
+
+    private final JsonPullReader reader = new JsonPullReader();
+
+    public String command;
+    public String messageId;
+    public long timestamp;
+
+    private byte[] payload;
+    private int dataStart;
+    private int dataEnd;
+    private JSONObject data;
+
+    public void clear() {
+        command = null;
+        messageId = null;
+        timestamp = 0;
+        payload = null;
+        dataStart = 0;
+        dataEnd = 0;
+        data = null;
+    }
+
+    /**
+     * 从JSON字节解码
+     */
+    public void decode(byte[] payload) throws IOException {
+        clear();
+        reader.reset(payload);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int key = reader.nextName(ENVELOPE_KEYS);
+            if (key == KEY_DATA && reader.peekObject()) {
+                readData(payload);
+            } else if (key == KEY_ENVELOPE_MESSAGE_ID) {
+                messageId = reader.nextString();
+            } else if (key == KEY_TIMESTAMP) {
+                timestamp = reader.nextLong(0);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readData(byte[] payload) throws IOException {
+        reader.peekObject(); // 跳过空白，定位到'{'
+        dataStart = reader.position();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int key = reader.nextName(DATA_KEYS);
+            if (key == KEY_COMMAND) {
+                command = reader.nextString();
+            } else if (key == KEY_MESSAGE_ID && messageId == null) {
+                messageId = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        dataEnd = reader.position();
+        this.payload = payload;
+    }
+
+    /**
+     * 从已解析的JSONObject读取（CBOR载荷走这条路径）
+     */
+    public void readFrom(JSONObject message) {
+        clear();
+        messageId = message.isNull("messageId") ? null : message.optString("messageId", null);
+        timestamp = message.optLong("timestamp", 0);
+        data = message.optJSONObject("data");
+        if (data != null && !data.isNull("command")) {
+            command = data.optString("command", null);
+        }
+        if (data != null && messageId == null && !data.isNull("messageId")) {
+            messageId = data.optString("messageId", null);
+        }
+    }
+
+    /**
+     * 去重键：优先使用消息ID，其次用命令名+服务端时间戳；两者都没有时返回null，不去重
+     */
+    public String dedupKey() {
+        if (messageId != null) {
+            return "msg:" + messageId;
+        }
+        if (timestamp > 0) {
+            return "cmd:" + command + ":" + timestamp;
+        }
+        return null;
+    }
+
+    /**
+     * 命令参数（即data对象），首次调用时解析
+     */
+    public JSONObject getData() throws JSONException {
+        if (data == null) {
+            if (payload == null) {
+                data = new JSONObject();
+            } else {
+                data = new JSONObject(new String(payload, dataStart, dataEnd - dataStart,
+                        StandardCharsets.UTF_8));
+            }
+        }
+        return data;
+    }
+}
@@ -3,6 +3,9 @@ package com.sakurapainting.mediaprogramandroid;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 配置管理器
  * 管理应用配置和MQTT连接参数
@@ -14,18 +17,71 @@ public class ConfigManager {
     // 配置键
     private static final String KEY_MQTT_SERVER = "mqtt_server";
     private static final String KEY_MQTT_PORT = "mqtt_port";
+    private static final String KEY_MQTT_SERVERS = "mqtt_servers";
+    private static final String KEY_MQTT_TLS = "mqtt_tls";
     private static final String KEY_DEVICE_ID = "device_id";
     private static final String KEY_CLIENT_ID = "client_id";
     private static final String KEY_AUTO_CONNECT = "auto_connect";
     private static final String KEY_HEARTBEAT_INTERVAL = "heartbeat_interval";
     private static final String KEY_RECONNECT_DELAY = "reconnect_delay";
+    private static final String KEY_RECONNECT_MAX_DELAY = "reconnect_max_delay";
+    private static final String KEY_RECONNECT_SPREAD = "reconnect_spread";
+    private static final String KEY_CONNECT_BURST = "connect_burst";
+    private static final String KEY_CONNECT_REFILL = "connect_refill";
+    private static final String KEY_STARTUP_JITTER = "startup_jitter";
+    private static final String KEY_REGISTER_LITE = "register_lite";
+    private static final String KEY_REGISTER_FINGERPRINT = "register_fingerprint";
+    private static final String KEY_REGISTER_TIME = "register_time";
+    private static final String KEY_PUBLISH_QUEUE_CAPACITY = "publish_queue_capacity";
+    private static final String KEY_MAX_INFLIGHT = "max_inflight";
+    private static final String KEY_PERSISTENCE_MODE = "persistence_mode";
+    private static final String KEY_SESSION_MODE = "session_mode";
+    private static final String KEY_HEARTBEAT_MODE = "heartbeat_mode";
+    private static final String KEY_HEARTBEAT_KEYFRAME_INTERVAL = "heartbeat_keyframe_interval";
+    private static final String KEY_HEARTBEAT_MIN_INTERVAL = "heartbeat_min_interval";
+    private static final String KEY_HEARTBEAT_MAX_INTERVAL = "heartbeat_max_interval";
+    private static final String KEY_LINK_PROBE_INTERVAL = "link_probe_interval";
+    private static final String KEY_CACHE_BUDGET = "cache_budget";
+    private static final String KEY_CACHE_MIN_FREE = "cache_min_free";
+    private static final String KEY_DOWNLOAD_CONNECTIONS = "download_connections";
     
     // 默认值
     private static final String DEFAULT_MQTT_SERVER = "192.168.13.217"; // 模拟器默认主机IP
     private static final int DEFAULT_MQTT_PORT = 1883;
+    private static final boolean DEFAULT_MQTT_TLS = false;
     private static final boolean DEFAULT_AUTO_CONNECT = true;
     private static final int DEFAULT_HEARTBEAT_INTERVAL = 30; // 秒
     private static final int DEFAULT_RECONNECT_DELAY = 5; // 秒
+    private static final int DEFAULT_RECONNECT_MAX_DELAY = 300; // 秒，退避上限
+    private static final int DEFAULT_RECONNECT_SPREAD = 30; // 秒，断线后首次重连的随机分散窗口
+    private static final int DEFAULT_CONNECT_BURST = 3; // 次，连接尝试令牌桶容量
+    private static final int DEFAULT_CONNECT_REFILL = 20; // 秒，每补充一个令牌的时间
+    private static final int DEFAULT_STARTUP_JITTER = 10; // 秒，连接后注册/上线/首个心跳的随机相位偏移窗口
+    private static final boolean DEFAULT_REGISTER_LITE = true;
+    private static final int DEFAULT_PUBLISH_QUEUE_CAPACITY = 100; // 条
+    private static final int DEFAULT_MAX_INFLIGHT = 10; // 条
+    
+    // 消息持久化模式
+    public static final String PERSISTENCE_MEMORY = "memory"; // 仅内存，进程退出即丢失
+    public static final String PERSISTENCE_FILE = "file";     // 未确认消息写入文件日志
+    private static final String DEFAULT_PERSISTENCE_MODE = PERSISTENCE_FILE;
+    
+    // MQTT会话模式
+    public static final String SESSION_CLEAN = "clean";           // 每次连接新建会话，断线期间的推送丢失
+    public static final String SESSION_PERSISTENT = "persistent"; // 代理保留会话和订阅，重连后补发断线期间的推送
+    private static final String DEFAULT_SESSION_MODE = SESSION_CLEAN;
+    
+    // 心跳模式
+    public static final String HEARTBEAT_MODE_FULL = "full";   // 每次发送完整状态
+    public static final String HEARTBEAT_MODE_DELTA = "delta"; // 关键帧 + 增量
+    private static final String DEFAULT_HEARTBEAT_MODE = HEARTBEAT_MODE_DELTA;
+    private static final int DEFAULT_HEARTBEAT_KEYFRAME_INTERVAL = 10; // 每10次心跳一个关键帧
+    private static final int DEFAULT_HEARTBEAT_MIN_INTERVAL = 15; // 秒，播放/下载或链路不稳时
+    private static final int DEFAULT_HEARTBEAT_MAX_INTERVAL = 300; // 秒，长时间空闲且链路稳定时
+    private static final int DEFAULT_LINK_PROBE_INTERVAL = 30; // 秒，回显探测间隔，0表示关闭
+    private static final int DEFAULT_CACHE_BUDGET = 4096; // MB，媒体缓存容量上限
+    private static final int DEFAULT_CACHE_MIN_FREE = 512; // MB，缓存所在存储至少保留的剩余空间
+    private static final int DEFAULT_DOWNLOAD_CONNECTIONS = 4; // 个，大文件分段下载的并行连接数，1表示单连接
     
     private SharedPreferences prefs;
     
@@ -51,9 +107,58 @@ public class ConfigManager {
         prefs.edit().putInt(KEY_MQTT_PORT, port).apply();
     }
     
+    // MQTT使用TLS（ssl://），端口需同时改为代理的TLS端口（通常8883）
+    public boolean isMqttTls() {
+        return prefs.getBoolean(KEY_MQTT_TLS, DEFAULT_MQTT_TLS);
+    }
+    
+    public void setMqttTls(boolean tls) {
+        prefs.edit().putBoolean(KEY_MQTT_TLS, tls).apply();
+    }
+    
     // 完整MQTT URL
     public String getMqttUrl() {
-        return String.format("tcp://%s:%d", getMqttServer(), getMqttPort());
+        return String.format("%s://%s:%d", getMqttScheme(), getMqttServer(), getMqttPort());
+    }
+    
+    private String getMqttScheme() {
+        return isMqttTls() ? "ssl" : "tcp";
+    }
+    
+    // 备选MQTT服务器列表，逗号分隔的host、host:port或带协议的tcp://host:port、ssl://host:port，
+    // 未写端口时使用MQTT端口，未写协议时按TLS开关；为空时只使用MQTT服务器地址
+    public String getMqttServers() {
+        return prefs.getString(KEY_MQTT_SERVERS, "");
+    }
+    
+    public void setMqttServers(String servers) {
+        prefs.edit().putString(KEY_MQTT_SERVERS, servers).apply();
+    }
+    
+    /**
+     * 所有候选MQTT URL，按配置顺序
+     */
+    public List<String> getMqttUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String entry : getMqttServers().split(",")) {
+            String server = entry.trim();
+            if (server.length() == 0) continue;
+            String url;
+            if (server.startsWith("tcp://") || server.startsWith("ssl://")) {
+                url = server;
+            } else if (server.indexOf(':') >= 0) {
+                url = getMqttScheme() + "://" + server;
+            } else {
+                url = String.format("%s://%s:%d", getMqttScheme(), server, getMqttPort());
+            }
+            if (!urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(getMqttUrl());
+        }
+        return urls;
     }
     
     // 设备ID
@@ -92,6 +197,51 @@ public class ConfigManager {
         prefs.edit().putInt(KEY_HEARTBEAT_INTERVAL, interval).apply();
     }
     
+    // 自适应心跳间隔下限
+    public int getHeartbeatMinInterval() {
+        return prefs.getInt(KEY_HEARTBEAT_MIN_INTERVAL, DEFAULT_HEARTBEAT_MIN_INTERVAL);
+    }
+    
+    public void setHeartbeatMinInterval(int interval) {
+        prefs.edit().putInt(KEY_HEARTBEAT_MIN_INTERVAL, interval).apply();
+    }
+    
+    // 自适应心跳间隔上限
+    public int getHeartbeatMaxInterval() {
+        return prefs.getInt(KEY_HEARTBEAT_MAX_INTERVAL, DEFAULT_HEARTBEAT_MAX_INTERVAL);
+    }
+    
+    public void setHeartbeatMaxInterval(int interval) {
+        prefs.edit().putInt(KEY_HEARTBEAT_MAX_INTERVAL, interval).apply();
+    }
+    
+    // 链路回显探测间隔
+    public int getLinkProbeInterval() {
+        return prefs.getInt(KEY_LINK_PROBE_INTERVAL, DEFAULT_LINK_PROBE_INTERVAL);
+    }
+    
+    public void setLinkProbeInterval(int interval) {
+        prefs.edit().putInt(KEY_LINK_PROBE_INTERVAL, interval).apply();
+    }
+    
+    // 心跳模式
+    public String getHeartbeatMode() {
+        return prefs.getString(KEY_HEARTBEAT_MODE, DEFAULT_HEARTBEAT_MODE);
+    }
+    
+    public void setHeartbeatMode(String mode) {
+        prefs.edit().putString(KEY_HEARTBEAT_MODE, mode).apply();
+    }
+    
+    // 关键帧间隔（心跳次数）
+    public int getHeartbeatKeyframeInterval() {
+        return prefs.getInt(KEY_HEARTBEAT_KEYFRAME_INTERVAL, DEFAULT_HEARTBEAT_KEYFRAME_INTERVAL);
+    }
+    
+    public void setHeartbeatKeyframeInterval(int interval) {
+        prefs.edit().putInt(KEY_HEARTBEAT_KEYFRAME_INTERVAL, interval).apply();
+    }
+    
     // 重连延迟
     public int getReconnectDelay() {
         return prefs.getInt(KEY_RECONNECT_DELAY, DEFAULT_RECONNECT_DELAY);
@@ -101,6 +251,136 @@ public class ConfigManager {
         prefs.edit().putInt(KEY_RECONNECT_DELAY, delay).apply();
     }
     
+    // 重连退避上限
+    public int getReconnectMaxDelay() {
+        return prefs.getInt(KEY_RECONNECT_MAX_DELAY, DEFAULT_RECONNECT_MAX_DELAY);
+    }
+    
+    public void setReconnectMaxDelay(int delay) {
+        prefs.edit().putInt(KEY_RECONNECT_MAX_DELAY, delay).apply();
+    }
+    
+    // 断线后重连分散窗口
+    public int getReconnectSpread() {
+        return prefs.getInt(KEY_RECONNECT_SPREAD, DEFAULT_RECONNECT_SPREAD);
+    }
+    
+    public void setReconnectSpread(int spread) {
+        prefs.edit().putInt(KEY_RECONNECT_SPREAD, spread).apply();
+    }
+    
+    // 连接尝试令牌桶容量（0表示不限速）
+    public int getConnectBurst() {
+        return prefs.getInt(KEY_CONNECT_BURST, DEFAULT_CONNECT_BURST);
+    }
+    
+    public void setConnectBurst(int burst) {
+        prefs.edit().putInt(KEY_CONNECT_BURST, burst).apply();
+    }
+    
+    // 连接尝试令牌补充间隔
+    public int getConnectRefill() {
+        return prefs.getInt(KEY_CONNECT_REFILL, DEFAULT_CONNECT_REFILL);
+    }
+    
+    public void setConnectRefill(int refill) {
+        prefs.edit().putInt(KEY_CONNECT_REFILL, refill).apply();
+    }
+    
+    // 连接后启动消息的随机相位偏移窗口
+    public int getStartupJitter() {
+        return prefs.getInt(KEY_STARTUP_JITTER, DEFAULT_STARTUP_JITTER);
+    }
+    
+    public void setStartupJitter(int jitter) {
+        prefs.edit().putInt(KEY_STARTUP_JITTER, jitter).apply();
+    }
+    
+    // 注册信息未变化时只发送指纹
+    public boolean isRegisterLiteEnabled() {
+        return prefs.getBoolean(KEY_REGISTER_LITE, DEFAULT_REGISTER_LITE);
+    }
+    
+    public void setRegisterLiteEnabled(boolean enabled) {
+        prefs.edit().putBoolean(KEY_REGISTER_LITE, enabled).apply();
+    }
+    
+    // 上次服务器确认的注册信息指纹及时间
+    public String getRegisterFingerprint() {
+        return prefs.getString(KEY_REGISTER_FINGERPRINT, null);
+    }
+    
+    public long getRegisterTime() {
+        return prefs.getLong(KEY_REGISTER_TIME, 0);
+    }
+    
+    public void setRegisterFingerprint(String fingerprint, long time) {
+        prefs.edit().putString(KEY_REGISTER_FINGERPRINT, fingerprint).putLong(KEY_REGISTER_TIME, time).apply();
+    }
+    
+    // 发布队列容量
+    public int getPublishQueueCapacity() {
+        return prefs.getInt(KEY_PUBLISH_QUEUE_CAPACITY, DEFAULT_PUBLISH_QUEUE_CAPACITY);
+    }
+    
+    public void setPublishQueueCapacity(int capacity) {
+        prefs.edit().putInt(KEY_PUBLISH_QUEUE_CAPACITY, capacity).apply();
+    }
+    
+    // 最大在途消息数
+    public int getMaxInflight() {
+        return prefs.getInt(KEY_MAX_INFLIGHT, DEFAULT_MAX_INFLIGHT);
+    }
+    
+    public void setMaxInflight(int maxInflight) {
+        prefs.edit().putInt(KEY_MAX_INFLIGHT, maxInflight).apply();
+    }
+    
+    // 消息持久化模式
+    public String getPersistenceMode() {
+        return prefs.getString(KEY_PERSISTENCE_MODE, DEFAULT_PERSISTENCE_MODE);
+    }
+    
+    public void setPersistenceMode(String mode) {
+        prefs.edit().putString(KEY_PERSISTENCE_MODE, mode).apply();
+    }
+    
+    // MQTT会话模式
+    public String getSessionMode() {
+        return prefs.getString(KEY_SESSION_MODE, DEFAULT_SESSION_MODE);
+    }
+    
+    public void setSessionMode(String mode) {
+        prefs.edit().putString(KEY_SESSION_MODE, mode).apply();
+    }
+    
+    // 媒体缓存容量上限
+    public int getCacheBudget() {
+        return prefs.getInt(KEY_CACHE_BUDGET, DEFAULT_CACHE_BUDGET);
+    }
+    
+    public void setCacheBudget(int budgetMb) {
+        prefs.edit().putInt(KEY_CACHE_BUDGET, budgetMb).apply();
+    }
+    
+    // 媒体缓存保留的剩余空间
+    public int getCacheMinFree() {
+        return prefs.getInt(KEY_CACHE_MIN_FREE, DEFAULT_CACHE_MIN_FREE);
+    }
+    
+    public void setCacheMinFree(int minFreeMb) {
+        prefs.edit().putInt(KEY_CACHE_MIN_FREE, minFreeMb).apply();
+    }
+    
+    // 大文件分段下载的并行连接数
+    public int getDownloadConnections() {
+        return prefs.getInt(KEY_DOWNLOAD_CONNECTIONS, DEFAULT_DOWNLOAD_CONNECTIONS);
+    }
+    
+    public void setDownloadConnections(int connections) {
+        prefs.edit().putInt(KEY_DOWNLOAD_CONNECTIONS, connections).apply();
+    }
+    
     /**
      * 重置所有配置为默认值
      */
@@ -119,9 +399,9 @@ public class ConfigManager {
      * 获取配置摘要信息
      */
     public String getConfigSummary() {
-        return String.format("服务器: %s:%d\n设备ID: %s\n客户端ID: %s\n自动连接: %s\n心跳间隔: %d秒",
-                getMqttServer(),
-                getMqttPort(),
+        String servers = getMqttServers();
+        return String.format("服务器: %s\n设备ID: %s\n客户端ID: %s\n自动连接: %s\n心跳间隔: %d秒",
+                servers.length() > 0 ? servers : getMqttServer() + ":" + getMqttPort(),
                 getDeviceId() != null ? getDeviceId() : "未设置",
                 getClientId() != null ? getClientId() : "未设置",
                 isAutoConnect() ? "是" : "否",
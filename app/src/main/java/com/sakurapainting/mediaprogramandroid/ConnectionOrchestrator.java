@@ -0,0 +1,337 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接编排器
+ * 用状态机保证任意时刻只有一个连接尝试，失败后按带上限的指数退避（全抖动）重试，
+ * 网络断开时立即丢弃当前连接（不等keepalive超时）并停止重试，网络恢复后马上重连，并统计尝试次数和连接耗时。
+ * 为避免服务器重启后整批终端同时重连：连接丢失后的首次重连在分散窗口内随机延迟，
+ * 每次连接尝试还要从令牌桶取令牌，短时间内反复触发的连接会被推迟。
+ */
+public class ConnectionOrchestrator {
+
+    private static final String TAG = "ConnectionOrchestrator";
+
+    /**
+     * 连接状态
+     */
+    public enum State {
+        IDLE,           // 未启动
+        CONNECTING,     // 正在连接
+        CONNECTED,      // 已连接
+        WAITING_RETRY,  // 等待下一次重试
+        WAITING_NETWORK, // 网络不可用，等待网络恢复
+        STOPPED         // 已主动停止
+    }
+
+    /**
+     * 执行单次连接，在编排器线程上调用
+     */
+    public interface Connector {
+        /**
+         * 阻塞执行一次连接尝试，失败时抛出异常
+         */
+        void connectOnce() throws Exception;
+
+        /**
+         * 网络已断开，丢弃当前连接（不再等待keepalive超时才发现断线）
+         */
+        void abort();
+    }
+
+    private final Connector connector;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+
+    // 网络恢复后重连的随机偏移上限，只用于错开同一网络下的终端，不能明显拖慢恢复
+    private static final long NETWORK_RESTORE_JITTER_MS = 500;
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private long reconnectSpreadMs = 0;
+    private TokenBucket connectBucket;
+
+    private State state = State.IDLE;
+    private ScheduledFuture<?> pendingAttempt;
+    private int consecutiveFailures = 0;
+    private boolean networkDown = false;
+    // 连接尝试过程中（connectOnce尚未返回）连接已丢失
+    private boolean lostDuringAttempt = false;
+
+    // 指标
+    private long outageStartTime = 0;
+    private long totalAttempts = 0;
+    private long totalFailures = 0;
+    private long totalConnects = 0;
+    private long lastTimeToConnectMs = -1;
+    private int lastAttemptsToConnect = 0;
+    private long lastRetryDelayMs = 0;
+    private long rateLimitedCount = 0;
+    private long networkWaitCount = 0;
+
+    public ConnectionOrchestrator(Connector connector, long baseDelayMs, long maxDelayMs) {
+        this.connector = connector;
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "mqtt-connect");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 连接丢失后首次重连的随机分散窗口，0表示按基础退避延迟
+     */
+    public synchronized void setReconnectSpread(long spreadMs) {
+        this.reconnectSpreadMs = Math.max(0, spreadMs);
+    }
+
+    /**
+     * 连接尝试限速：最多连续burst次，之后每refillMs允许一次；burst小于等于0表示不限速
+     */
+    public synchronized void setConnectRateLimit(int burst, long refillMs) {
+        this.connectBucket = burst > 0 ? new TokenBucket(burst, refillMs) : null;
+    }
+
+    /**
+     * 请求建立连接；已在连接中或已连接时忽略
+     */
+    public synchronized void start() {
+        switch (state) {
+            case CONNECTING:
+            case CONNECTED:
+                Log.d(TAG, "忽略重复的连接请求，当前状态: " + state);
+                return;
+            case WAITING_RETRY:
+                // 用户主动连接时不再等待退避
+                scheduleAttempt(0);
+                return;
+            default:
+                consecutiveFailures = 0;
+                scheduleAttempt(0);
+        }
+    }
+
+    /**
+     * 主动停止：取消待执行的重试，不再自动重连
+     */
+    public synchronized void stop() {
+        cancelPending();
+        state = State.STOPPED;
+        Log.i(TAG, "连接编排器已停止");
+    }
+
+    /**
+     * 连接丢失时调用，按退避策略安排重连
+     */
+    public synchronized void onConnectionLost() {
+        if (state == State.CONNECTING) {
+            // 连接刚建立、还在做连接后的初始化时丢失，由attempt()按失败处理
+            lostDuringAttempt = true;
+            return;
+        }
+        if (state != State.CONNECTED) {
+            return;
+        }
+        consecutiveFailures = 0;
+        if (reconnectSpreadMs > 0) {
+            // 服务器重启时所有终端同时断线，在分散窗口内随机选择重连时间
+            long delay = (long) (random.nextDouble() * reconnectSpreadMs);
+            lastRetryDelayMs = delay;
+            Log.i(TAG, "连接丢失，将在 " + delay + "ms 后重连");
+            scheduleAttempt(delay);
+        } else {
+            scheduleRetry();
+        }
+    }
+
+    /**
+     * 网络恢复时调用，正在等待网络或等待重试则立即重试并重置退避
+     */
+    public synchronized void onNetworkAvailable() {
+        networkDown = false;
+        if (state == State.WAITING_RETRY || state == State.WAITING_NETWORK) {
+            consecutiveFailures = 0;
+            // 同一网络下的终端会同时收到网络恢复通知，加一个很小的随机偏移
+            long delay = reconnectSpreadMs > 0
+                    ? (long) (random.nextDouble() * Math.min(reconnectSpreadMs, NETWORK_RESTORE_JITTER_MS)) : 0;
+            Log.i(TAG, "网络已恢复，" + delay + "ms 后重试连接");
+            scheduleAttempt(delay);
+        }
+    }
+
+    /**
+     * 网络断开时调用：已连接则在编排器线程上丢弃连接，停止退避重试，等待网络恢复
+     */
+    public synchronized void onNetworkLost() {
+        networkDown = true;
+        switch (state) {
+            case CONNECTED:
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connector.abort();
+                    }
+                });
+                enterWaitingNetwork();
+                break;
+            case WAITING_RETRY:
+                cancelPending();
+                enterWaitingNetwork();
+                break;
+            default:
+                // 正在连接的尝试会失败，失败后进入等待网络
+                break;
+        }
+    }
+
+    private void enterWaitingNetwork() {
+        state = State.WAITING_NETWORK;
+        networkWaitCount++;
+        Log.i(TAG, "网络不可用，等待网络恢复后重连");
+    }
+
+    private void scheduleRetry() {
+        long delay = nextBackoffDelay();
+        lastRetryDelayMs = delay;
+        Log.i(TAG, "将在 " + delay + "ms 后重试连接（连续失败 " + consecutiveFailures + " 次）");
+        scheduleAttempt(delay);
+    }
+
+    /**
+     * 全抖动指数退避：在 [0, min(上限, 基础延迟 * 2^失败次数)] 内均匀取值
+     */
+    private long nextBackoffDelay() {
+        int exponent = Math.min(consecutiveFailures, 20);
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << exponent);
+        return (long) (random.nextDouble() * ceiling);
+    }
+
+    private void scheduleAttempt(long delayMs) {
+        cancelPending();
+        if (outageStartTime == 0) {
+            outageStartTime = System.currentTimeMillis();
+            lastAttemptsToConnect = 0;
+        }
+        state = delayMs > 0 ? State.WAITING_RETRY : State.CONNECTING;
+        pendingAttempt = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt();
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pendingAttempt != null) {
+            pendingAttempt.cancel(false);
+            pendingAttempt = null;
+        }
+    }
+
+    /**
+     * 执行一次连接尝试（编排器线程）
+     */
+    private void attempt() {
+        synchronized (this) {
+            if (state == State.STOPPED || state == State.CONNECTED || state == State.WAITING_NETWORK) {
+                return;
+            }
+            long wait = connectBucket != null ? connectBucket.tryAcquire() : 0;
+            if (wait > 0) {
+                rateLimitedCount++;
+                Log.i(TAG, "连接尝试过于频繁，推迟 " + wait + "ms");
+                scheduleAttempt(wait);
+                return;
+            }
+            state = State.CONNECTING;
+            lostDuringAttempt = false;
+            totalAttempts++;
+            lastAttemptsToConnect++;
+        }
+
+        try {
+            connector.connectOnce();
+        } catch (Exception e) {
+            synchronized (this) {
+                totalFailures++;
+                consecutiveFailures++;
+                Log.w(TAG, "连接尝试失败: " + e.getMessage());
+                if (state == State.STOPPED) {
+                    return;
+                }
+                if (networkDown) {
+                    enterWaitingNetwork();
+                } else {
+                    scheduleRetry();
+                }
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (state == State.STOPPED) {
+                return;
+            }
+            if (lostDuringAttempt) {
+                // 自动重连已关闭，这里不重试就再也不会重连
+                totalFailures++;
+                consecutiveFailures++;
+                Log.w(TAG, "连接在初始化期间丢失");
+                if (networkDown) {
+                    enterWaitingNetwork();
+                } else {
+                    scheduleRetry();
+                }
+                return;
+            }
+            state = State.CONNECTED;
+            totalConnects++;
+            consecutiveFailures = 0;
+            lastTimeToConnectMs = System.currentTimeMillis() - outageStartTime;
+            outageStartTime = 0;
+            Log.i(TAG, "连接成功，耗时 " + lastTimeToConnectMs + "ms，尝试 " + lastAttemptsToConnect + " 次");
+        }
+    }
+
+    /**
+     * 获取连接指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("state", state.name());
+            metrics.put("attempts", totalAttempts);
+            metrics.put("failures", totalFailures);
+            metrics.put("connects", totalConnects);
+            metrics.put("consecutiveFailures", consecutiveFailures);
+            metrics.put("lastTimeToConnectMs", lastTimeToConnectMs);
+            metrics.put("lastAttemptsToConnect", lastAttemptsToConnect);
+            metrics.put("lastRetryDelayMs", lastRetryDelayMs);
+            metrics.put("rateLimited", rateLimitedCount);
+            metrics.put("networkWaits", networkWaitCount);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建连接指标失败", e);
+        }
+        return metrics;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
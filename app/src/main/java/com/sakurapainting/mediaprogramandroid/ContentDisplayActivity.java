@@ -9,7 +9,6 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.media.MediaPlayer;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
@@ -49,9 +48,12 @@ public class ContentDisplayActivity extends Activity {
     private String title;
     private String text;
     private int duration;
+    private int playbackId;
     
     private Handler autoCloseHandler;
     private Runnable autoCloseRunnable;
+    // 正在加载的图片任务的调度key，每个Activity实例独立，不会与其他实例共用任务
+    private String imageJobKey;
     
     private BroadcastReceiver stopContentReceiver = new BroadcastReceiver() {
         @Override
@@ -165,6 +167,7 @@ public class ContentDisplayActivity extends Activity {
         title = intent.getStringExtra("title");
         text = intent.getStringExtra("text");
         duration = intent.getIntExtra("duration", 10);
+        playbackId = intent.getIntExtra(ContentManager.EXTRA_PLAYBACK_ID, -1);
         
         Log.i(TAG, String.format("显示内容 - 类型: %s, ID: %s, 时长: %d秒", contentType, contentId, duration));
     }
@@ -218,8 +221,9 @@ public class ContentDisplayActivity extends Activity {
         
         imageView.setVisibility(View.VISIBLE);
         
-        // 异步加载图片
-        new LoadImageTask().execute(url);
+        // 异步加载图片：在图片专用的线程池上执行，不会排在视频下载和后台预取后面
+        imageJobKey = "image:" + System.identityHashCode(this) + ":" + url;
+        DownloadScheduler.getDefault().submit(imageJobKey, DownloadScheduler.Priority.IMAGE, new LoadImageTask(url));
     }
     
     /**
@@ -384,42 +388,62 @@ public class ContentDisplayActivity extends Activity {
     }
     
     /**
-     * 异步图片加载任务
+     * 异步图片加载任务，由DownloadScheduler调度执行，结果回到主线程显示
      */
-    private class LoadImageTask extends AsyncTask<String, Void, Bitmap> {
+    private class LoadImageTask implements DownloadScheduler.Job {
+        
+        private final String imageUrl;
+        private volatile HttpURLConnection connection;
+        
+        LoadImageTask(String imageUrl) {
+            this.imageUrl = imageUrl;
+        }
         
         @Override
-        protected Bitmap doInBackground(String... urls) {
-            String imageUrl = urls[0];
-            
+        public void run(DownloadScheduler.Handle handle) {
+            Bitmap bitmap = null;
             try {
                 URL url = new URL(imageUrl);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection = (HttpURLConnection) url.openConnection();
+                TlsTransport.applyDefault(connection);
                 connection.setDoInput(true);
                 connection.connect();
                 
                 InputStream input = connection.getInputStream();
-                Bitmap bitmap = BitmapFactory.decodeStream(input);
+                bitmap = BitmapFactory.decodeStream(input);
                 input.close();
                 connection.disconnect();
                 
-                return bitmap;
-                
             } catch (Exception e) {
-                Log.e(TAG, "加载图片失败: " + imageUrl, e);
-                return null;
+                if (!handle.isCancelled()) {
+                    Log.e(TAG, "加载图片失败: " + imageUrl, e);
+                }
+            }
+            
+            if (handle.isCancelled()) {
+                return;
             }
+            final Bitmap result = bitmap;
+            runOnUiThread(() -> {
+                if (isFinishing()) return;
+                if (result != null) {
+                    imageView.setImageBitmap(result);
+                    Log.i(TAG, "图片加载成功");
+                } else {
+                    Log.e(TAG, "图片加载失败");
+                    finish();
+                }
+            });
         }
         
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-                Log.i(TAG, "图片加载成功");
-            } else {
-                Log.e(TAG, "图片加载失败");
-                finish();
-            }
+        public void cancel() {
+            // 在调度线程之外断开连接，让阻塞中的读取返回
+            final HttpURLConnection current = connection;
+            if (current == null) return;
+            Thread thread = new Thread(current::disconnect, "image-abort");
+            thread.setDaemon(true);
+            thread.start();
         }
     }
     
@@ -432,11 +456,24 @@ public class ContentDisplayActivity extends Activity {
             autoCloseHandler.removeCallbacks(autoCloseRunnable);
         }
         
+        // 取消未完成的图片加载
+        if (imageJobKey != null) {
+            DownloadScheduler.getDefault().cancel(imageJobKey);
+        }
+        
         // 停止视频播放
         if (videoView != null && videoView.isPlaying()) {
             videoView.stopPlayback();
         }
         
+        // 通知ContentManager播放结束，缓存文件恢复为可淘汰
+        if (playbackId >= 0) {
+            Intent ended = new Intent(ContentManager.ACTION_PLAYBACK_ENDED);
+            ended.setPackage(getPackageName());
+            ended.putExtra(ContentManager.EXTRA_PLAYBACK_ID, playbackId);
+            sendBroadcast(ended);
+        }
+        
         // 清理WebView
         if (webView != null) {
             webView.destroy();
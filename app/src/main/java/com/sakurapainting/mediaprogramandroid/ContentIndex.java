@@ -0,0 +1,429 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * 内容索引
+ * 按contentId记录本地媒体文件对应的内容版本（服务器下发的哈希，没有时为下载地址）、
+ * 文件名、大小、SHA-256校验值、是否下载完成以及播放次数和最近播放时间；
+ * 未完成的下载还记录服务器的校验标识（ETag或Last-Modified）和已落盘的字节数，进程重启后据此续传。
+ * 文件格式为追加日志，每条记录是一个条目的完整快照，后写的覆盖先写的：
+ * [长度][记录][CRC32]，启动时顺序回放一次即可重建，尾部写了一半的记录被截掉。
+ * 下载完成的记录立即fsync，播放统计按批落盘。
+ */
+public class ContentIndex {
+
+    private static final String TAG = "ContentIndex";
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    private static final int MAX_RECORD_LENGTH = 64 * 1024;
+    // 累计多少条记录或多长时间执行一次fsync
+    private static final int SYNC_BATCH = 32;
+    private static final long SYNC_INTERVAL_MS = 5000;
+    // 日志记录数超过条目数的倍数时压缩
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final int COMPACT_RATIO = 4;
+
+    /**
+     * 一个内容的本地文件记录，不可变，更新时整体替换
+     */
+    public static class Entry {
+        public final String contentId;
+        public final String version;
+        public final String fileName;
+        public final long size;
+        public final String checksum;
+        public final boolean complete;
+        public final long lastAccess;
+        public final int accessCount;
+        // 未完成下载的续传信息
+        public final String validator;
+        public final long progress;
+
+        Entry(String contentId, String version, String fileName, long size, String checksum,
+              boolean complete, long lastAccess, int accessCount, String validator, long progress) {
+            this.contentId = contentId;
+            this.version = version;
+            this.fileName = fileName;
+            this.size = size;
+            this.checksum = checksum;
+            this.complete = complete;
+            this.lastAccess = lastAccess;
+            this.accessCount = accessCount;
+            this.validator = validator;
+            this.progress = progress;
+        }
+    }
+
+    private final File file;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final CRC32 crc = new CRC32();
+
+    private FileOutputStream fileStream;
+    private DataOutputStream out;
+    private int recordCount = 0;
+    private int unsyncedCount = 0;
+    private long lastSyncTime = 0;
+
+    public ContentIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 打开索引并回放已有记录
+     */
+    public synchronized void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        long validLength = replay();
+        if (file.exists() && file.length() > validLength) {
+            // 截掉进程被杀时写了一半的尾部记录
+            Log.w(TAG, "索引尾部不完整，截断到 " + validLength + " 字节");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        if (recordCount >= COMPACT_MIN_RECORDS && recordCount > entries.size() * COMPACT_RATIO) {
+            compact();
+        }
+        Log.i(TAG, "内容索引已打开，条目: " + entries.size());
+    }
+
+    /**
+     * 顺序读取索引，重建条目表
+     * @return 有效记录的字节长度
+     */
+    private long replay() throws IOException {
+        entries.clear();
+        recordCount = 0;
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 check = new CRC32();
+                check.update(record);
+                if (in.readInt() != (int) check.getValue()) {
+                    break;
+                }
+                if (!apply(record)) {
+                    break;
+                }
+                recordCount++;
+                validLength += 4 + length + 4;
+            }
+        } catch (EOFException e) {
+            // 读到文件末尾
+        } finally {
+            in.close();
+        }
+        return validLength;
+    }
+
+    private boolean apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String contentId = in.readUTF();
+        if (type == RECORD_REMOVE) {
+            entries.remove(contentId);
+            return true;
+        }
+        if (type != RECORD_PUT) {
+            return false;
+        }
+        String version = in.readUTF();
+        String fileName = in.readUTF();
+        long size = in.readLong();
+        String checksum = in.readUTF();
+        boolean complete = in.readBoolean();
+        long lastAccess = in.readLong();
+        int accessCount = in.readInt();
+        String validator = "";
+        long progress = 0;
+        if (in.available() > 0) {
+            // 旧版本写入的记录没有续传字段
+            validator = in.readUTF();
+            progress = in.readLong();
+        }
+        entries.put(contentId, new Entry(contentId, version, fileName, size,
+                checksum.isEmpty() ? null : checksum, complete, lastAccess, accessCount,
+                validator.isEmpty() ? null : validator, progress));
+        return true;
+    }
+
+    public synchronized Entry get(String contentId) {
+        return entries.get(contentId);
+    }
+
+    /**
+     * 未完成下载使用的文件名
+     */
+    public synchronized Set<String> pendingFileNames() {
+        Set<String> names = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (!entry.complete) {
+                names.add(entry.fileName);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 开始下载某个版本：记录为未完成，原有条目（旧版本）被替换
+     */
+    public synchronized void begin(String contentId, String version, String fileName) {
+        Entry previous = entries.get(contentId);
+        long lastAccess = previous != null ? previous.lastAccess : 0;
+        int accessCount = previous != null ? previous.accessCount : 0;
+        put(new Entry(contentId, version, fileName, -1, null, false, lastAccess, accessCount, null, 0), false);
+    }
+
+    /**
+     * 记录下载进度：bytes之前的数据已经fsync到临时文件
+     */
+    public synchronized void checkpoint(String contentId, String validator, long bytes) {
+        Entry entry = entries.get(contentId);
+        if (entry == null || entry.complete) return;
+        put(new Entry(contentId, entry.version, entry.fileName, entry.size, null, false,
+                entry.lastAccess, entry.accessCount, validator, bytes), false);
+    }
+
+    /**
+     * 下载完成并校验通过，立即落盘
+     */
+    public synchronized void complete(String contentId, long size, String checksum) {
+        Entry entry = entries.get(contentId);
+        if (entry == null) return;
+        put(new Entry(contentId, entry.version, entry.fileName, size, checksum, true,
+                entry.lastAccess, entry.accessCount, null, 0), true);
+    }
+
+    /**
+     * 记录一次播放
+     */
+    public synchronized void recordAccess(String contentId) {
+        Entry entry = entries.get(contentId);
+        if (entry == null) return;
+        put(new Entry(contentId, entry.version, entry.fileName, entry.size, entry.checksum, entry.complete,
+                System.currentTimeMillis(), entry.accessCount + 1, entry.validator, entry.progress), false);
+    }
+
+    public synchronized void remove(String contentId) {
+        if (entries.remove(contentId) == null) return;
+        try {
+            recordBuffer.reset();
+            DataOutputStream record = new DataOutputStream(recordBuffer);
+            record.writeByte(RECORD_REMOVE);
+            record.writeUTF(contentId);
+            writeRecord(false);
+        } catch (IOException e) {
+            Log.e(TAG, "写入索引删除记录失败", e);
+        }
+        maybeCompact();
+    }
+
+    /**
+     * 删除使用某个文件的条目（缓存淘汰该文件时调用）
+     */
+    public synchronized void removeByFileName(String fileName) {
+        for (Entry entry : entries.values()) {
+            if (entry.fileName.equals(fileName)) {
+                remove(entry.contentId);
+                return;
+            }
+        }
+    }
+
+    private void put(Entry entry, boolean durable) {
+        entries.put(entry.contentId, entry);
+        try {
+            recordBuffer.reset();
+            writeEntry(new DataOutputStream(recordBuffer), entry);
+            writeRecord(durable);
+        } catch (IOException e) {
+            Log.e(TAG, "写入内容索引失败", e);
+        }
+        maybeCompact();
+    }
+
+    private void maybeCompact() {
+        if (recordCount >= COMPACT_MIN_RECORDS && recordCount > entries.size() * COMPACT_RATIO) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.e(TAG, "压缩内容索引失败", e);
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream record, Entry entry) throws IOException {
+        record.writeByte(RECORD_PUT);
+        record.writeUTF(entry.contentId);
+        record.writeUTF(entry.version);
+        record.writeUTF(entry.fileName);
+        record.writeLong(entry.size);
+        record.writeUTF(entry.checksum != null ? entry.checksum : "");
+        record.writeBoolean(entry.complete);
+        record.writeLong(entry.lastAccess);
+        record.writeInt(entry.accessCount);
+        record.writeUTF(entry.validator != null ? entry.validator : "");
+        record.writeLong(entry.progress);
+    }
+
+    /**
+     * 写出recordBuffer中的一条记录：立即flush到系统，durable或攒够一批时fsync
+     */
+    private void writeRecord(boolean durable) throws IOException {
+        if (out == null) {
+            fileStream = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileStream, 4096));
+        }
+        crc.reset();
+        crc.update(recordBuffer.toByteArray());
+        out.writeInt(recordBuffer.size());
+        recordBuffer.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        recordCount++;
+        unsyncedCount++;
+
+        long now = System.currentTimeMillis();
+        if (durable || unsyncedCount >= SYNC_BATCH || now - lastSyncTime >= SYNC_INTERVAL_MS) {
+            syncLocked();
+        }
+    }
+
+    /**
+     * 强制把索引落盘，进程退出前调用
+     */
+    public synchronized void sync() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+            syncLocked();
+        } catch (IOException e) {
+            Log.e(TAG, "同步内容索引失败", e);
+        }
+    }
+
+    private void syncLocked() throws IOException {
+        if (fileStream != null && unsyncedCount > 0) {
+            fileStream.getFD().sync();
+        }
+        unsyncedCount = 0;
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 压缩索引：每个条目只保留一条记录，写临时文件后原子替换
+     */
+    private void compact() throws IOException {
+        closeWriter();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream tmpStream = new FileOutputStream(tmp);
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(tmpStream, 8192));
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            CRC32 check = new CRC32();
+            for (Entry entry : entries.values()) {
+                buffer.reset();
+                writeEntry(new DataOutputStream(buffer), entry);
+                check.reset();
+                check.update(buffer.toByteArray());
+                tmpOut.writeInt(buffer.size());
+                buffer.writeTo(tmpOut);
+                tmpOut.writeInt((int) check.getValue());
+            }
+            tmpOut.flush();
+            tmpStream.getFD().sync();
+        } finally {
+            tmpOut.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("替换索引文件失败: " + file.getPath());
+        }
+        recordCount = entries.size();
+        unsyncedCount = 0;
+        Log.d(TAG, "内容索引已压缩，保留 " + recordCount + " 条");
+    }
+
+    private void closeWriter() throws IOException {
+        if (out != null) {
+            out.flush();
+            syncLocked();
+            out.close();
+            out = null;
+            fileStream = null;
+        }
+    }
+
+    /**
+     * 关闭索引
+     */
+    public synchronized void close() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭内容索引失败", e);
+        }
+    }
+
+    /**
+     * 获取索引指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            int complete = 0;
+            for (Entry entry : entries.values()) {
+                if (entry.complete) complete++;
+            }
+            metrics.put("entries", entries.size());
+            metrics.put("complete", complete);
+            metrics.put("records", recordCount);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建索引指标失败", e);
+        }
+        return metrics;
+    }
+}
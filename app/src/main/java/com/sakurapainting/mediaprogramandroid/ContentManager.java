@@ -1,8 +1,9 @@
 package com.sakurapainting.mediaprogramandroid;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
+import android.content.IntentFilter;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
@@ -12,11 +13,20 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 内容管理器
@@ -26,15 +36,71 @@ public class ContentManager {
     
     private static final String TAG = "ContentManager";
     
+    // ContentDisplayActivity结束视频播放时发送，extra为启动时分配的playbackId
+    public static final String ACTION_PLAYBACK_ENDED = "com.sakurapainting.mediaprogramandroid.PLAYBACK_ENDED";
+    public static final String EXTRA_PLAYBACK_ID = "playbackId";
+    
     private Context context;
     private Handler mainHandler;
     
     // 下载目录
     private static final String DOWNLOAD_DIR = "MediaProgram";
+    // 下载中的临时文件后缀
+    private static final String PART_SUFFIX = ".part";
+    // 内容索引文件（应用私有目录）
+    private static final String INDEX_FILE = "content.idx";
+    // 单次断网最长等待时间、单个下载最多暂停次数
+    private static final long MAX_PAUSE_MS = 10 * 60 * 1000;
+    private static final int MAX_PAUSES = 20;
+    // 网络仍可用时（读超时、连接被重置）没有进展的连续重试次数及首次重试延迟
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_BASE_MS = 2000;
+    // 每写入多少字节fsync临时文件并记录一次进度
+    private static final long CHECKPOINT_BYTES = 8 * 1024 * 1024;
+    // 剩余大小超过阈值时改为多连接分段下载；每段大小、单段最多重试次数
+    private static final long SEGMENT_THRESHOLD = 16 * 1024 * 1024;
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_SEGMENT_RETRIES = 3;
+    
+    private final NetworkMonitor networkMonitor;
+    private final ConfigManager configManager;
+    // 下载目录的媒体缓存，目录在外部存储和私有目录之间切换时重建
+    private MediaCache mediaCache;
+    private ContentIndex contentIndex;
+    private final DownloadScheduler scheduler = DownloadScheduler.getDefault();
+    // 未完成的视频下载：contentId -> 任务，同一内容再次请求时加入等待；网络断开时中断其连接
+    private final ConcurrentHashMap<String, VideoDownloadTask> downloads = new ConcurrentHashMap<>();
+    // 正在播放而pin住的缓存文件及其播放编号，只在主线程访问
+    private String pinnedFile;
+    private int playbackId = 0;
     
-    public ContentManager(Context context) {
+    public ContentManager(Context context, NetworkMonitor networkMonitor) {
         this.context = context;
         this.mainHandler = new Handler(Looper.getMainLooper());
+        this.networkMonitor = networkMonitor;
+        this.configManager = new ConfigManager(context);
+        networkMonitor.addListener(new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkAvailable() {
+                // 暂停中的下载在awaitAvailable中等待，会自动继续
+            }
+            
+            @Override
+            public void onNetworkLost() {
+                for (VideoDownloadTask task : downloads.values()) {
+                    task.onNetworkLost();
+                }
+            }
+        });
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // 只处理当前这次播放的结束，旧Activity晚到的销毁不影响新的播放
+                if (intent.getIntExtra(EXTRA_PLAYBACK_ID, -1) == playbackId) {
+                    unpinPlaying();
+                }
+            }
+        }, new IntentFilter(ACTION_PLAYBACK_ENDED));
     }
     
     /**
@@ -55,84 +121,64 @@ public class ContentManager {
     
     /**
      * 处理内容推送
+     * message由调用线程复用，这里先把字段复制到局部变量再交给异步流程
      */
-    public void handleContentPush(JSONObject message, ContentCallback callback) {
-        try {
-            Log.i(TAG, "收到内容推送消息: " + message.toString());
-            
-            JSONObject data = message.getJSONObject("data");
-            String contentId = data.getString("contentId");
-            String fileUrl = data.getString("fileUrl");  // 从后端推送的完整URL
-            String type = data.getString("type");
-            String title = data.optString("title", "");
-            String description = data.optString("description", "");
-            String format = data.optString("format", "");
-            int duration = data.optInt("duration", 0);
-            
-            Log.i(TAG, String.format("处理内容推送 - ID: %s, 类型: %s, 标题: %s, URL: %s", contentId, type, title, fileUrl));
-            
-            // 验证内容类型
-            if (!isSupportedContentType(type)) {
-                callback.onResult(contentId, "error", "不支持的内容类型: " + type);
-                return;
-            }
-            
-            // 根据内容类型处理
-            switch (type.toLowerCase()) {
-                case "image":
-                    displayImage(contentId, fileUrl, duration, callback);
-                    break;
-                case "video":
-                    // 对于视频，先下载到本地再播放
-                    downloadAndDisplayVideo(contentId, title, fileUrl, format, duration, callback);
-                    break;
-                case "text":
-                    displayText(contentId, data, duration, callback);
-                    break;
-                case "webpage":
-                    displayWebpage(contentId, fileUrl, duration, callback);
-                    break;
-                default:
-                    callback.onResult(contentId, "error", "未实现的内容类型: " + type);
-            }
-            
-        } catch (JSONException e) {
-            Log.e(TAG, "解析内容推送消息失败", e);
-            String contentId = "unknown";
-            try {
-                contentId = message.getJSONObject("data").getString("contentId");
-            } catch (JSONException ignored) {}
-            
-            callback.onResult(contentId, "error", "消息格式错误");
+    public void handleContentPush(ContentPushMessage message, ContentCallback callback) {
+        if (!message.isValid()) {
+            Log.e(TAG, "内容推送消息缺少必填字段");
+            callback.onResult(message.contentId != null ? message.contentId : "unknown", "error", "消息格式错误");
+            return;
+        }
+
+        String contentId = message.contentId;
+        String fileUrl = message.fileUrl;  // 从后端推送的完整URL
+        String type = message.type;
+        String title = message.title;
+        String format = message.format;
+        String text = message.text;
+        String hash = message.hash;
+        int duration = message.duration;
+        
+        Log.i(TAG, String.format("处理内容推送 - ID: %s, 类型: %s, 标题: %s, URL: %s", contentId, type, title, fileUrl));
+        
+        // 验证内容类型
+        if (!isSupportedContentType(type)) {
+            callback.onResult(contentId, "error", "不支持的内容类型: " + type);
+            return;
+        }
+        
+        // 根据内容类型处理
+        switch (type.toLowerCase()) {
+            case "image":
+                displayImage(contentId, fileUrl, duration, callback);
+                break;
+            case "video":
+                // 对于视频，先下载到本地再播放
+                downloadAndDisplayVideo(contentId, title, fileUrl, format, hash, duration, callback);
+                break;
+            case "text":
+                displayText(contentId, title, text, duration, callback);
+                break;
+            case "webpage":
+                displayWebpage(contentId, fileUrl, duration, callback);
+                break;
+            default:
+                callback.onResult(contentId, "error", "未实现的内容类型: " + type);
         }
     }
     
     /**
      * 下载并显示视频内容
      */
-    private void downloadAndDisplayVideo(String contentId, String title, String fileUrl, String format, int duration, ContentCallback callback) {
+    private void downloadAndDisplayVideo(String contentId, String title, String fileUrl, String format, String hash,
+                                         int duration, ContentCallback callback) {
         Log.i(TAG, "开始下载视频: " + fileUrl);
         Log.i(TAG, "视频标题: " + title);
         Log.i(TAG, "内容ID: " + contentId);
         Log.i(TAG, "视频格式: " + format);
         
-        // 先检查本地是否已有该文件
-        String fileName = generateVideoFileName(contentId, title, format);
-        File localFile = new File(getDownloadDirectory(), fileName);
-        
-        Log.i(TAG, "本地文件路径: " + localFile.getAbsolutePath());
-        Log.i(TAG, "文件名: " + fileName);
-        
-        if (localFile.exists() && localFile.length() > 0) {
-            Log.i(TAG, "本地文件已存在，直接播放: " + localFile.getAbsolutePath());
-            displayVideo(contentId, localFile.getAbsolutePath(), duration, callback);
-            return;
-        }
-        
-        Log.i(TAG, "本地文件不存在，开始下载...");
-        
-        // 异步下载视频文件
-        new VideoDownloadTask(contentId, fileUrl, localFile, new DownloadProgressCallback() {
+        boolean downloading = fetchVideo(contentId, fileUrl, format, hash, DownloadScheduler.Priority.URGENT,
+                new DownloadProgressCallback() {
             @Override
             public void onProgress(int progress) {
                 Log.d(TAG, "下载进度: " + progress + "%");
@@ -141,9 +187,8 @@ public class ContentManager {
             
             @Override
             public void onComplete(String localPath) {
-                Log.i(TAG, "视频下载完成: " + localPath);
-                File file = new File(localPath);
-                Log.i(TAG, "下载文件大小: " + file.length() + " bytes");
+                Log.i(TAG, "视频就绪: " + localPath);
+                getIndex().recordAccess(contentId);
                 // 下载完成后立即播放
                 displayVideo(contentId, localPath, duration, callback);
             }
@@ -153,35 +198,259 @@ public class ContentManager {
                 Log.e(TAG, "视频下载失败: " + error);
                 callback.onResult(contentId, "error", "视频下载失败: " + error);
             }
-        }).execute();
+        });
         
-        // 立即报告开始下载状态
-        callback.onResult(contentId, "downloading", null);
+        if (downloading) {
+            // 立即报告开始下载状态
+            callback.onResult(contentId, "downloading", null);
+        }
+    }
+    
+    /**
+     * 预取视频：以后台优先级下载到缓存，不播放
+     * 预取中的内容又收到播放推送时，任务提升为紧急，下载完成后直接播放
+     */
+    public void prefetch(ContentPushMessage message, ContentCallback callback) {
+        if (!message.isValid()) {
+            callback.onResult(message.contentId != null ? message.contentId : "unknown", "error", "消息格式错误");
+            return;
+        }
+        final String contentId = message.contentId;
+        if (!"video".equalsIgnoreCase(message.type)) {
+            callback.onResult(contentId, "error", "只支持预取视频内容");
+            return;
+        }
+        Log.i(TAG, "预取视频: " + contentId + ", URL: " + message.fileUrl);
+        fetchVideo(contentId, message.fileUrl, message.format, message.hash, DownloadScheduler.Priority.BACKGROUND,
+                new DownloadProgressCallback() {
+            @Override
+            public void onProgress(int progress) {
+            }
+            
+            @Override
+            public void onComplete(String localPath) {
+                Log.i(TAG, "预取完成: " + localPath);
+                callback.onResult(contentId, "prefetched", null);
+            }
+            
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "预取失败: " + error);
+                callback.onResult(contentId, "error", "预取失败: " + error);
+            }
+        });
+    }
+    
+    /**
+     * 取消内容的下载（排队中或进行中）
+     * @return 有对应的下载返回true
+     */
+    public boolean cancelDownload(String contentId) {
+        return scheduler.cancel(downloadKey(contentId));
+    }
+    
+    private static String downloadKey(String contentId) {
+        return "video:" + contentId;
+    }
+    
+    /**
+     * 取得视频的本地文件，必要时按priority调度下载
+     * 本地文件按内容索引查找：contentId相同且版本一致、下载完成、大小与记录一致才算命中，
+     * 标题变化不会导致重新下载，被杀进程留下的半截文件也不会被当作完整文件。
+     * 同一内容正在下载时不重复下载，加入等待并按需提升优先级。
+     * @return 已调度下载（结果稍后在主线程回调）返回true；本地命中（已同步回调onComplete）或提交失败返回false
+     */
+    private boolean fetchVideo(String contentId, String fileUrl, String format, String hash,
+                               DownloadScheduler.Priority priority, DownloadProgressCallback listener) {
+        String version = hash != null && !hash.isEmpty() ? hash.toLowerCase(Locale.US) : fileUrl;
+        String key = downloadKey(contentId);
+        VideoDownloadTask task;
+        synchronized (downloads) {
+            VideoDownloadTask running = downloads.get(contentId);
+            if (running != null && running.version.equals(version) && running.addCallback(listener)) {
+                Log.i(TAG, "内容正在下载，等待其完成: " + contentId);
+                if (priority == DownloadScheduler.Priority.URGENT) {
+                    scheduler.promote(key);
+                }
+                return true;
+            }
+            if (running != null && !running.version.equals(version)) {
+                Log.i(TAG, "内容已更新，取消旧版本的下载: " + contentId);
+                scheduler.cancel(key);
+            }
+            
+            // 先检查本地是否已有该内容的当前版本
+            MediaCache cache = getCache(getDownloadDirectory());
+            ContentIndex index = getIndex();
+            ContentIndex.Entry entry = index.get(contentId);
+            if (entry != null && !entry.version.equals(version)) {
+                Log.i(TAG, "内容已更新，删除旧版本文件: " + entry.fileName);
+                cache.remove(entry.fileName);
+                new File(cache.getDirectory(), entry.fileName + PART_SUFFIX).delete();
+                index.remove(contentId);
+                entry = null;
+            }
+            
+            File cached = entry != null && entry.complete ? cache.lookup(entry.fileName, entry.size) : null;
+            if (cached != null) {
+                Log.i(TAG, "本地文件已存在: " + cached.getAbsolutePath());
+                listener.onComplete(cached.getAbsolutePath());
+                return false;
+            }
+            if (entry == null || !entry.complete) {
+                cache.recordMiss();
+            }
+            
+            String fileName = generateVideoFileName(contentId, version, format);
+            File localFile = new File(cache.getDirectory(), fileName);
+            Log.i(TAG, "本地文件路径: " + localFile.getAbsolutePath());
+            Log.i(TAG, "本地文件不存在，开始下载...");
+            if (entry == null || entry.complete || !entry.fileName.equals(fileName)) {
+                index.begin(contentId, version, fileName);
+            }
+            
+            task = new VideoDownloadTask(contentId, version, fileUrl, localFile, hash, cache);
+            task.addCallback(listener);
+            downloads.put(contentId, task);
+            // 下载期间需要网络通知来暂停/继续，即使MQTT已经断开
+            networkMonitor.start(task);
+            if (scheduler.submit(key, priority, task) == null) {
+                removeDownload(contentId, task);
+                listener.onError("下载队列已满");
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void removeDownload(String contentId, VideoDownloadTask task) {
+        downloads.remove(contentId, task);
+        networkMonitor.stop(task);
     }
     
     /**
-     * 异步视频下载任务
+     * 视频下载任务，由DownloadScheduler调度执行
+     * 先写入.part临时文件，完成后再改名，中途失败不会留下被当作完整文件的半截视频。
+     * 网络断开时暂停，网络恢复后用Range请求从已下载的位置继续；读超时等错误在网络可用时退避重试。
+     * 进度定期fsync并记入内容索引，下载失败或进程被杀后，下次推送同一内容从记录的位置续传，
+     * 续传请求带If-Range，服务器上的文件已变化时会返回完整内容，从头下载。
+     * 下载过程中计算SHA-256，推送带了hash时校验不符的文件不会保存。
      */
-    private class VideoDownloadTask extends AsyncTask<Void, Integer, String> {
-        private String contentId;
+    private class VideoDownloadTask implements DownloadScheduler.Job {
+        private final String contentId;
+        private final String version;
         private String fileUrl;
         private File localFile;
-        private DownloadProgressCallback callback;
+        private File partFile;
+        private String expectedHash;
+        private MessageDigest digest;
+        // 服务器的ETag（强校验）或Last-Modified，用于If-Range
+        private String validator;
+        private MediaCache cache;
+        // 等待结果的回调，在主线程调用
+        private final List<DownloadProgressCallback> callbacks = new ArrayList<>();
+        private boolean started = false;
+        private boolean finished = false;
+        private int publishedProgress = -1;
+        private volatile boolean cancelled = false;
+        // 本次传输被网络断开打断：网络切换时断开和恢复几乎同时到达，读取报错时网络可能已经可用
+        private volatile boolean networkLost = false;
         private String errorMessage;
+        private volatile HttpURLConnection activeConnection;
+        private volatile SegmentedDownloader activeSegments;
+        private int pauseCount = 0;
+        private int retryCount = 0;
+        private long lastFailureOffset = -1;
         
-        public VideoDownloadTask(String contentId, String fileUrl, File localFile, DownloadProgressCallback callback) {
+        public VideoDownloadTask(String contentId, String version, String fileUrl, File localFile,
+                                 String expectedHash, MediaCache cache) {
             this.contentId = contentId;
+            this.version = version;
             this.fileUrl = fileUrl;
             this.localFile = localFile;
-            this.callback = callback;
+            this.partFile = new File(localFile.getPath() + PART_SUFFIX);
+            this.expectedHash = expectedHash != null && !expectedHash.isEmpty() ? expectedHash : null;
+            this.cache = cache;
+        }
+        
+        /**
+         * 加入等待结果
+         * @return 任务已结束或已取消时返回false
+         */
+        synchronized boolean addCallback(DownloadProgressCallback callback) {
+            if (finished || cancelled) return false;
+            callbacks.add(callback);
+            return true;
+        }
+        
+        private boolean isCancelled() {
+            return cancelled;
+        }
+        
+        /**
+         * 标记任务开始执行，执行线程与取消只有一方能成功
+         */
+        private synchronized boolean claim() {
+            if (started) return false;
+            started = true;
+            return true;
         }
         
         @Override
-        protected String doInBackground(Void... params) {
-            HttpURLConnection connection = null;
-            InputStream input = null;
-            FileOutputStream output = null;
-            
+        public void cancel() {
+            cancelled = true;
+            if (claim()) {
+                // 还没有开始执行，不会再有线程来收尾：直接结束并通知等待者
+                removeDownload(contentId, this);
+                errorMessage = "下载已取消";
+                deliver(null);
+            } else {
+                interrupt();
+            }
+        }
+        
+        /**
+         * 网络断开时由主线程调用：记下原因并断开当前连接
+         */
+        void onNetworkLost() {
+            networkLost = true;
+            interrupt();
+        }
+        
+        /**
+         * 网络断开或取消时调用（可能在主线程）：在单独线程上断开当前连接，让阻塞中的读取立即返回而不是等到读超时
+         */
+        void interrupt() {
+            final HttpURLConnection connection = activeConnection;
+            final SegmentedDownloader segments = activeSegments;
+            if (connection == null && segments == null) return;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                    if (segments != null) {
+                        segments.abort();
+                    }
+                }
+            }, "download-abort");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        @Override
+        public void run(DownloadScheduler.Handle handle) {
+            if (!claim()) return;
+            String localPath = download();
+            removeDownload(contentId, this);
+            if (localPath == null && isCancelled()) {
+                errorMessage = "下载已取消";
+            }
+            deliver(localPath);
+        }
+        
+        private String download() {
             try {
                 Log.i(TAG, "开始下载任务，URL: " + fileUrl);
                 Log.i(TAG, "目标文件: " + localFile.getAbsolutePath());
@@ -192,13 +461,163 @@ public class ContentManager {
                     boolean created = parentDir.mkdirs();
                     Log.i(TAG, "创建父目录: " + parentDir.getAbsolutePath() + ", 结果: " + created);
                 }
+                try {
+                    digest = MessageDigest.getInstance("SHA-256");
+                } catch (NoSuchAlgorithmException e) {
+                    Log.w(TAG, "不支持SHA-256，跳过文件校验");
+                }
+                restorePartial();
+                
+                while (true) {
+                    networkLost = false;
+                    try {
+                        if (transfer()) {
+                            break;
+                        }
+                        return null;
+                    } catch (IOException e) {
+                        if (isCancelled()) {
+                            throw e;
+                        }
+                        boolean interruptedByNetwork = networkLost;
+                        if (!interruptedByNetwork && networkMonitor.isAvailable()) {
+                            retryAfterError(e);
+                            continue;
+                        }
+                        if (pauseCount >= MAX_PAUSES) {
+                            throw e;
+                        }
+                        pauseCount++;
+                        if (interruptedByNetwork && networkMonitor.isAvailable()) {
+                            // 网络已切换（如Wi-Fi换到以太网），立即在新网络上续传，不按错误退避
+                            Log.i(TAG, "网络已切换，继续下载，已下载: " + partFile.length() + " bytes");
+                            continue;
+                        }
+                        Log.i(TAG, "网络断开，下载暂停，已下载: " + partFile.length() + " bytes");
+                        if (!networkMonitor.awaitAvailable(MAX_PAUSE_MS)) {
+                            errorMessage = "网络长时间不可用，下载中止";
+                            Log.e(TAG, errorMessage);
+                            return null;
+                        }
+                        Log.i(TAG, "网络已恢复，继续下载");
+                    }
+                }
                 
+                String checksum = digest != null ? toHex(digest.digest()) : null;
+                if (expectedHash != null && checksum != null && !expectedHash.equalsIgnoreCase(checksum)) {
+                    errorMessage = "文件校验失败";
+                    Log.e(TAG, errorMessage + "，期望 " + expectedHash + "，实际 " + checksum);
+                    partFile.delete();
+                    return null;
+                }
+                
+                if (isCancelled()) {
+                    return null;
+                }
+                if (!partFile.renameTo(localFile)) {
+                    errorMessage = "保存下载文件失败";
+                    Log.e(TAG, errorMessage + ": " + localFile.getAbsolutePath());
+                    return null;
+                }
+                cache.put(localFile.getName());
+                getIndex().complete(contentId, localFile.length(), checksum);
+                Log.i(TAG, "文件保存到: " + localFile.getAbsolutePath());
+                Log.i(TAG, "文件实际大小: " + localFile.length() + " bytes");
+                
+                return localFile.getAbsolutePath();
+                
+            } catch (Exception e) {
+                Log.e(TAG, "下载视频文件出错", e);
+                errorMessage = e.getMessage();
+                return null;
+            }
+        }
+        
+        /**
+         * 上次未完成的下载：版本相同且能校验（有服务器校验标识或推送带了hash）时，
+         * 把临时文件截到最后一次记录的进度（之后的数据可能没有落盘），并用已有数据恢复摘要；否则从头下载
+         */
+        private void restorePartial() throws IOException {
+            ContentIndex.Entry entry = getIndex().get(contentId);
+            long resumeFrom = 0;
+            if (entry != null && !entry.complete && entry.fileName.equals(localFile.getName())
+                    && (entry.validator != null || expectedHash != null)) {
+                resumeFrom = Math.min(partFile.length(), entry.progress);
+            }
+            if (resumeFrom <= 0) {
+                if (partFile.exists()) {
+                    partFile.delete();
+                }
+                return;
+            }
+            
+            validator = entry.validator;
+            RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+            try {
+                raf.setLength(resumeFrom);
+            } finally {
+                raf.close();
+            }
+            hashPartFrom(0);
+            Log.i(TAG, "继续上次未完成的下载，已有 " + resumeFrom + " bytes");
+        }
+        
+        /**
+         * 网络可用时的传输错误（读超时、连接被重置等）：退避后续传，没有进展的连续重试超过上限时放弃
+         */
+        private void retryAfterError(IOException e) throws IOException, InterruptedException {
+            long downloaded = partFile.length();
+            if (downloaded > lastFailureOffset) {
+                retryCount = 0;
+            }
+            lastFailureOffset = downloaded;
+            if (retryCount >= MAX_RETRIES) {
+                throw e;
+            }
+            long delay = RETRY_BASE_MS << retryCount;
+            retryCount++;
+            Log.w(TAG, "下载出错，" + delay + "ms 后从 " + downloaded + " 字节重试: " + e.getMessage());
+            Thread.sleep(delay);
+        }
+        
+        /**
+         * 从头下载：丢弃临时文件和摘要状态
+         */
+        private void restart() {
+            partFile.delete();
+            validator = null;
+            if (digest != null) {
+                digest.reset();
+            }
+        }
+        
+        /**
+         * 下载剩余部分追加到临时文件；已有部分时用Range续传，服务器不支持Range时从头下载
+         * @return 下载完成返回true，HTTP错误或被取消返回false（已设置errorMessage）
+         * @throws IOException 网络或读写错误
+         */
+        private boolean transfer() throws IOException, InterruptedException {
+            HttpURLConnection connection = null;
+            InputStream input = null;
+            FileOutputStream output = null;
+            
+            try {
+                long offset = partFile.length();
                 URL url = new URL(fileUrl);
-                Log.i(TAG, "建立HTTP连接到: " + url.toString());
+                Log.i(TAG, "建立HTTP连接到: " + url.toString() + (offset > 0 ? "，从 " + offset + " 字节继续" : ""));
                 
                 connection = (HttpURLConnection) url.openConnection();
+                // https下载与MQTT共用TLS会话缓存，重复下载同一服务器时恢复会话
+                TlsTransport.applyDefault(connection);
                 connection.setConnectTimeout(15000);
                 connection.setReadTimeout(30000);
+                if (offset > 0) {
+                    connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                    if (validator != null) {
+                        connection.setRequestProperty("If-Range", validator);
+                    }
+                }
+                activeConnection = connection;
                 
                 Log.i(TAG, "开始连接...");
                 connection.connect();
@@ -206,31 +625,71 @@ public class ContentManager {
                 int responseCode = connection.getResponseCode();
                 Log.i(TAG, "HTTP响应码: " + responseCode);
                 
-                if (responseCode != HttpURLConnection.HTTP_OK) {
+                if (responseCode == HttpURLConnection.HTTP_OK) {
+                    // 服务器忽略了Range，或If-Range表明文件已变化，从头写
+                    if (offset > 0) {
+                        Log.i(TAG, "服务器返回完整内容，从头下载");
+                    }
+                    offset = 0;
+                    restart();
+                    validator = validatorOf(connection);
+                } else if (responseCode == 416 && offset > 0 && rangeTotal(connection) == offset) {
+                    // 临时文件已经是完整文件（上次在改名前中断），直接进入校验和改名
+                    Log.i(TAG, "临时文件已完整: " + offset + " bytes");
+                    return true;
+                } else if (responseCode == 416 && offset > 0) {
+                    // 续传位置超出文件长度，临时文件与服务器上的文件不一致
+                    restart();
+                    throw new IOException("续传位置无效，从头下载");
+                } else if (responseCode == HttpURLConnection.HTTP_PARTIAL && offset > 0
+                        && rangeStart(connection) != offset) {
+                    restart();
+                    throw new IOException("续传位置不一致，从头下载");
+                } else if (responseCode != HttpURLConnection.HTTP_PARTIAL || offset == 0) {
                     errorMessage = "下载失败，HTTP响应码: " + responseCode;
                     Log.e(TAG, errorMessage);
-                    return null;
+                    return false;
                 }
                 
-                int fileLength = connection.getContentLength();
+                int contentLength = connection.getContentLength();
+                long fileLength = contentLength >= 0 ? offset + contentLength : -1;
                 Log.i(TAG, "文件大小: " + fileLength + " bytes");
+                if (contentLength > 0) {
+                    // 写入前先淘汰旧文件，避免写到一半空间不足
+                    cache.reserve(contentLength);
+                }
+                
+                if (canSegment(connection, responseCode, offset, fileLength)) {
+                    // 大文件改为多连接分段下载，这个连接只用来取得文件大小和校验标识
+                    connection.disconnect();
+                    activeConnection = null;
+                    return transferSegmented(url, offset, fileLength);
+                }
                 
                 input = connection.getInputStream();
-                output = new FileOutputStream(localFile);
+                output = new FileOutputStream(partFile, offset > 0);
                 
                 byte[] buffer = new byte[4096];
-                long total = 0;
+                long total = offset;
+                long checkpointed = offset;
                 int count;
                 
                 Log.i(TAG, "开始读取数据...");
                 while ((count = input.read(buffer)) != -1) {
                     if (isCancelled()) {
                         Log.w(TAG, "下载被取消");
-                        return null;
+                        return false;
                     }
                     
                     total += count;
                     output.write(buffer, 0, count);
+                    if (digest != null) {
+                        digest.update(buffer, 0, count);
+                    }
+                    if (total - checkpointed >= CHECKPOINT_BYTES) {
+                        checkpoint(output, total);
+                        checkpointed = total;
+                    }
                     
                     // 更新下载进度
                     if (fileLength > 0) {
@@ -245,19 +704,23 @@ public class ContentManager {
                 }
                 
                 output.flush();
+                if (fileLength > 0 && total < fileLength) {
+                    // 连接被提前关闭（例如网络断开时被interrupt），按网络错误处理
+                    throw new IOException("连接提前结束，已下载 " + total + "/" + fileLength);
+                }
                 Log.i(TAG, "下载完成，总共下载: " + total + " bytes");
-                Log.i(TAG, "文件保存到: " + localFile.getAbsolutePath());
-                Log.i(TAG, "文件实际大小: " + localFile.length() + " bytes");
-                
-                return localFile.getAbsolutePath();
+                return true;
                 
-            } catch (Exception e) {
-                Log.e(TAG, "下载视频文件出错", e);
-                errorMessage = e.getMessage();
-                return null;
             } finally {
+                activeConnection = null;
                 try {
                     if (output != null) {
+                        // 无论成功失败都记下已落盘的进度，下次从这里续传
+                        try {
+                            checkpoint(output, partFile.length());
+                        } catch (IOException e) {
+                            Log.w(TAG, "记录下载进度失败", e);
+                        }
                         output.close();
                         Log.d(TAG, "关闭输出流");
                     }
@@ -275,31 +738,142 @@ public class ContentManager {
             }
         }
         
-        @Override
-        protected void onProgressUpdate(Integer... progress) {
-            if (callback != null) {
-                callback.onProgress(progress[0]);
+        /**
+         * 是否改用分段下载：剩余部分超过阈值、服务器支持Range，并且有校验标识保证各段来自同一版本
+         */
+        private boolean canSegment(HttpURLConnection connection, int responseCode, long offset, long fileLength) {
+            int connections = configManager.getDownloadConnections();
+            if (connections <= 1 || fileLength <= 0 || fileLength - offset < SEGMENT_THRESHOLD || validator == null) {
+                return false;
             }
+            return responseCode == HttpURLConnection.HTTP_PARTIAL
+                    || "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
         }
         
-        @Override
-        protected void onPostExecute(String localPath) {
-            if (localPath != null) {
-                if (callback != null) {
-                    callback.onComplete(localPath);
+        /**
+         * 多连接分段下载[offset, fileLength)，失败时临时文件已截到连续完整的位置，抛出的IOException按普通传输错误处理
+         * 各段乱序到达，摘要在全部写完后读取新写入的部分计算
+         */
+        private boolean transferSegmented(URL url, final long offset, final long fileLength)
+                throws IOException, InterruptedException {
+            SegmentedDownloader downloader = new SegmentedDownloader(configManager.getDownloadConnections(),
+                    SEGMENT_SIZE, MAX_SEGMENT_RETRIES);
+            activeSegments = downloader;
+            try {
+                downloader.download(url, validator, partFile, offset, fileLength - offset,
+                        new SegmentedDownloader.Listener() {
+                            private int lastProgress = -1;
+                            
+                            // 各段的下载线程并发调用，加锁保证进度只增不减
+                            @Override
+                            public synchronized void onProgress(long written) {
+                                int progress = (int) ((offset + written) * 100 / fileLength);
+                                if (progress > lastProgress) {
+                                    lastProgress = progress;
+                                    publishProgress(progress);
+                                }
+                            }
+                            
+                            @Override
+                            public void onCheckpoint(long contiguous) {
+                                recordProgress(contiguous);
+                            }
+                        });
+            } catch (IOException e) {
+                // 文件已截到连续完整的位置，摘要同样跟上，之后按单连接从文件末尾续传
+                hashPartFrom(offset);
+                throw e;
+            } finally {
+                activeSegments = null;
+            }
+            hashPartFrom(offset);
+            Log.i(TAG, "分段下载完成，总共: " + fileLength + " bytes");
+            return true;
+        }
+        
+        /**
+         * 把临时文件中from之后的内容计入摘要
+         */
+        private void hashPartFrom(long from) throws IOException {
+            if (digest == null) return;
+            FileInputStream in = new FileInputStream(partFile);
+            try {
+                long skipped = 0;
+                while (skipped < from) {
+                    long n = in.skip(from - skipped);
+                    if (n <= 0) return;
+                    skipped += n;
                 }
-            } else {
-                if (callback != null) {
-                    callback.onError(errorMessage != null ? errorMessage : "未知下载错误");
+                byte[] buffer = new byte[64 * 1024];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, count);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        
+        /**
+         * fsync临时文件后把进度记入索引，索引中的进度不会超过实际落盘的数据
+         */
+        private void checkpoint(FileOutputStream output, long bytes) throws IOException {
+            output.flush();
+            output.getFD().sync();
+            recordProgress(bytes);
+        }
+        
+        /**
+         * 进度记入索引；已取消的任务不再写入，索引中的条目可能已属于同一内容的新版本
+         */
+        private void recordProgress(long bytes) {
+            if (isCancelled()) return;
+            getIndex().checkpoint(contentId, validator, bytes);
+        }
+        
+        /**
+         * 进度变化时在主线程通知等待者
+         */
+        private void publishProgress(final int progress) {
+            final List<DownloadProgressCallback> targets;
+            synchronized (this) {
+                if (progress == publishedProgress) return;
+                publishedProgress = progress;
+                targets = new ArrayList<>(callbacks);
+            }
+            mainHandler.post(() -> {
+                for (DownloadProgressCallback callback : targets) {
+                    callback.onProgress(progress);
                 }
+            });
+        }
+        
+        /**
+         * 在主线程把结果交给所有等待者
+         */
+        private void deliver(final String localPath) {
+            final List<DownloadProgressCallback> targets;
+            synchronized (this) {
+                finished = true;
+                targets = new ArrayList<>(callbacks);
             }
+            final String error = errorMessage != null ? errorMessage : "未知下载错误";
+            mainHandler.post(() -> {
+                for (DownloadProgressCallback callback : targets) {
+                    if (localPath != null) {
+                        callback.onComplete(localPath);
+                    } else {
+                        callback.onError(error);
+                    }
+                }
+            });
         }
     }
     
     /**
-     * 生成视频文件名
+     * 生成视频文件名：只由contentId和内容版本决定，与标题无关
      */
-    private String generateVideoFileName(String contentId, String title, String format) {
+    private String generateVideoFileName(String contentId, String version, String format) {
         String extension = ".mp4"; // 默认扩展名
         
         if (format != null && !format.isEmpty()) {
@@ -311,11 +885,9 @@ public class ContentManager {
         }
         
         // 清理文件名中的非法字符
-        String safeName = (title != null && !title.isEmpty()) ? 
-            title.replaceAll("[^a-zA-Z0-9\\-_\\.]", "_") : 
-            "video_" + contentId;
+        String safeId = contentId.replaceAll("[^a-zA-Z0-9\\-_\\.]", "_");
         
-        return safeName + "_" + contentId + extension;
+        return String.format(Locale.US, "video_%s_%08x%s", safeId, version.hashCode(), extension);
     }
     
     /**
@@ -347,6 +919,133 @@ public class ContentManager {
         return dir;
     }
 
+    /**
+     * 获取目录对应的媒体缓存，容量按当前配置
+     */
+    private synchronized MediaCache getCache(File dir) {
+        if (mediaCache == null || !mediaCache.getDirectory().equals(dir)) {
+            long budget = (long) configManager.getCacheBudget() * 1024 * 1024;
+            long minFree = (long) configManager.getCacheMinFree() * 1024 * 1024;
+            mediaCache = new MediaCache(dir, budget, minFree);
+            final ContentIndex index = getIndex();
+            mediaCache.setEvictionListener(new MediaCache.EvictionListener() {
+                @Override
+                public void onEvicted(String name) {
+                    index.removeByFileName(name);
+                }
+            });
+            removeStaleParts(dir, index);
+        }
+        return mediaCache;
+    }
+    
+    /**
+     * 删除索引中没有对应未完成下载的临时文件（例如旧版本留下的），可续传的保留
+     */
+    private static void removeStaleParts(File dir, ContentIndex index) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        Set<String> pending = index.pendingFileNames();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PART_SUFFIX)
+                    && !pending.contains(name.substring(0, name.length() - PART_SUFFIX.length()))) {
+                Log.i(TAG, "删除无效的临时文件: " + name);
+                file.delete();
+            }
+        }
+    }
+    
+    /**
+     * 获取内容索引，首次使用时打开（按条目数顺序回放一次）
+     * 打开失败时退回只在内存中记录，重启后所有内容按未命中处理
+     */
+    private synchronized ContentIndex getIndex() {
+        if (contentIndex == null) {
+            File file = new File(context.getFilesDir(), INDEX_FILE);
+            contentIndex = new ContentIndex(file);
+            try {
+                contentIndex.open();
+            } catch (IOException e) {
+                Log.e(TAG, "打开内容索引失败", e);
+            }
+        }
+        return contentIndex;
+    }
+    
+    /**
+     * 内容索引落盘，进程退出前调用
+     */
+    public synchronized void sync() {
+        if (contentIndex != null) {
+            contentIndex.sync();
+        }
+    }
+    
+    /**
+     * 获取缓存指标（用于状态上报），还没有处理过视频时为空
+     */
+    public synchronized JSONObject getCacheMetrics() {
+        JSONObject metrics = mediaCache != null ? mediaCache.getMetrics() : new JSONObject();
+        if (contentIndex != null) {
+            try {
+                metrics.put("index", contentIndex.getMetrics());
+            } catch (JSONException e) {
+                Log.e(TAG, "创建缓存指标失败", e);
+            }
+        }
+        return metrics;
+    }
+    
+    /**
+     * 响应中可用于If-Range的校验标识：强ETag优先，否则Last-Modified；弱ETag不能用于If-Range
+     */
+    private static String validatorOf(HttpURLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return connection.getHeaderField("Last-Modified");
+    }
+    
+    /**
+     * 206响应Content-Range中的起始位置（"bytes 100-999/1000"），无法解析时返回-1
+     */
+    private static long rangeStart(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        int dash = range.indexOf('-');
+        if (dash < 0) return -1;
+        try {
+            return Long.parseLong(range.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Content-Range中的文件总长度（"bytes 100-999/1000"，416响应中起止位置写作*），无法解析或未知时返回-1
+     */
+    private static long rangeTotal(HttpURLConnection connection) {
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        int slash = range.indexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.US, "%02x", b & 0xFF));
+        }
+        return hex.toString();
+    }
+
     /**
      * 检查是否支持的内容类型
      */
@@ -401,11 +1100,13 @@ public class ContentManager {
         
         mainHandler.post(() -> {
             try {
+                pinPlaying(url);
                 Intent intent = new Intent(context, ContentDisplayActivity.class);
                 intent.putExtra("contentType", "video");
                 intent.putExtra("contentId", contentId);
                 intent.putExtra("url", url);
                 intent.putExtra("duration", duration);
+                intent.putExtra(EXTRA_PLAYBACK_ID, playbackId);
                 intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 
                 context.startActivity(intent);
@@ -421,14 +1122,32 @@ public class ContentManager {
         });
     }
     
+    /**
+     * 在主线程调用：pin住即将播放的缓存文件，换下上一次播放pin住的文件
+     */
+    private void pinPlaying(String path) {
+        unpinPlaying();
+        playbackId++;
+        MediaCache cache = getCache(getDownloadDirectory());
+        File file = new File(path);
+        if (cache.getDirectory().equals(file.getParentFile())) {
+            pinnedFile = file.getName();
+            cache.pin(pinnedFile);
+        }
+    }
+    
+    private void unpinPlaying() {
+        if (pinnedFile != null) {
+            getCache(getDownloadDirectory()).unpin(pinnedFile);
+            pinnedFile = null;
+        }
+    }
+    
     /**
      * 显示文本内容
      */
-    private void displayText(String contentId, JSONObject data, int duration, ContentCallback callback) {
+    private void displayText(String contentId, String title, String text, int duration, ContentCallback callback) {
         try {
-            String text = data.optString("text", "");
-            String title = data.optString("title", "");
-            
             Log.i(TAG, "显示文本: " + title);
             
             mainHandler.post(() -> {
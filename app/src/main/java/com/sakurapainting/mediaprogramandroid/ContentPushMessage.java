@@ -0,0 +1,176 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * 内容推送消息：{"type":"content_push","data":{"contentId":...,"fileUrl":...,"type":...}}
+ * 直接从载荷字节流式解码，每个工作线程复用一个实例；
+ * 处理方需要跨线程保存的字段应先复制到局部变量。
+ */
+public class ContentPushMessage {
+
+    private static final String[] ENVELOPE_KEYS = {"data", "messageId", "timestamp"};
+    private static final int KEY_DATA = 0;
+    private static final int KEY_ENVELOPE_MESSAGE_ID = 1;
+    private static final int KEY_TIMESTAMP = 2;
+
+    private static final String[] DATA_KEYS = {
+            "contentId", "fileUrl", "type", "title", "description", "format", "duration", "text", "messageId", "hash"
+    };
+    private static final int KEY_CONTENT_ID = 0;
+    private static final int KEY_FILE_URL = 1;
+    private static final int KEY_TYPE = 2;
+    private static final int KEY_TITLE = 3;
+    private static final int KEY_DESCRIPTION = 4;
+    private static final int KEY_FORMAT = 5;
+    private static final int KEY_DURATION = 6;
+    private static final int KEY_TEXT = 7;
+    private static final int KEY_MESSAGE_ID = 8;
+    private static final int KEY_HASH = 9;
+
+    private final JsonPullReader reader = new JsonPullReader();
+
+    public String contentId;
+    public String fileUrl;
+    public String type;
+    public String title;
+    public String description;
+    public String format;
+    public String text;
+    // 文件内容的SHA-256（十六进制），可选
+    public String hash;
+    public int duration;
+    public String messageId;
+    public long timestamp;
+
+    public void clear() {
+        contentId = null;
+        fileUrl = null;
+        type = null;
+        title = "";
+        description = "";
+        format = "";
+        text = "";
+        hash = null;
+        duration = 0;
+        messageId = null;
+        timestamp = 0;
+    }
+
+    /**
+     * 从JSON字节解码，未知字段直接跳过
+     */
+    public void decode(byte[] payload) throws IOException {
+        clear();
+        reader.reset(payload);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            int key = reader.nextName(ENVELOPE_KEYS);
+            if (key == KEY_DATA && reader.peekObject()) {
+                readData();
+            } else if (key == KEY_ENVELOPE_MESSAGE_ID) {
+                messageId = reader.nextString();
+            } else if (key == KEY_TIMESTAMP) {
+                timestamp = reader.nextLong(0);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void readData() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName(DATA_KEYS)) {
+                case KEY_CONTENT_ID:
+                    contentId = reader.nextString();
+                    break;
+                case KEY_FILE_URL:
+                    fileUrl = reader.nextString();
+                    break;
+                case KEY_TYPE:
+                    type = reader.nextString();
+                    break;
+                case KEY_TITLE:
+                    title = orEmpty(reader.nextString());
+                    break;
+                case KEY_DESCRIPTION:
+                    description = orEmpty(reader.nextString());
+                    break;
+                case KEY_FORMAT:
+                    format = orEmpty(reader.nextString());
+                    break;
+                case KEY_DURATION:
+                    duration = (int) reader.nextLong(0);
+                    break;
+                case KEY_TEXT:
+                    text = orEmpty(reader.nextString());
+                    break;
+                case KEY_HASH:
+                    hash = reader.nextString();
+                    break;
+                case KEY_MESSAGE_ID:
+                    if (messageId == null) {
+                        messageId = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * 从已解析的JSONObject读取（CBOR载荷走这条路径）
+     */
+    public void readFrom(JSONObject message) {
+        clear();
+        messageId = message.isNull("messageId") ? null : message.optString("messageId", null);
+        timestamp = message.optLong("timestamp", 0);
+        JSONObject data = message.optJSONObject("data");
+        if (data == null) return;
+        if (messageId == null && !data.isNull("messageId")) {
+            messageId = data.optString("messageId", null);
+        }
+        contentId = data.isNull("contentId") ? null : data.optString("contentId", null);
+        fileUrl = data.isNull("fileUrl") ? null : data.optString("fileUrl", null);
+        type = data.isNull("type") ? null : data.optString("type", null);
+        title = data.optString("title", "");
+        description = data.optString("description", "");
+        format = data.optString("format", "");
+        text = data.optString("text", "");
+        hash = data.isNull("hash") ? null : data.optString("hash", null);
+        duration = data.optInt("duration", 0);
+    }
+
+    /**
+     * contentId、fileUrl、type为必填字段
+     */
+    public boolean isValid() {
+        return contentId != null && fileUrl != null && type != null;
+    }
+
+    /**
+     * 去重键：优先使用消息ID，其次用contentId+服务端时间戳；两者都没有时返回null，不去重。
+     * 不能只按contentId去重，运营在窗口期内再次推送同一内容（重播、停止后重新显示）是有意的
+     */
+    public String dedupKey() {
+        if (messageId != null) {
+            return "msg:" + messageId;
+        }
+        if (timestamp > 0) {
+            return "content:" + contentId + ":" + timestamp;
+        }
+        return null;
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,70 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 入站消息去重缓存
+ * QoS 1下代理可能重复投递同一条消息；按消息标识记录最近处理过的消息，
+ * 条目数超过上限时淘汰最早的，超过时间窗口的条目视为过期。
+ * 查询和插入都是O(1)（过期清理按插入顺序从头部摊还）。
+ */
+public class DedupCache {
+
+    private final int maxEntries;
+    private final long windowMs;
+    private long duplicateCount = 0;
+
+    // 按插入顺序保存 key -> 首次处理时间
+    private final LinkedHashMap<String, Long> seen;
+
+    public DedupCache(final int maxEntries, long windowMs) {
+        this.maxEntries = maxEntries;
+        this.windowMs = windowMs;
+        this.seen = new LinkedHashMap<String, Long>(maxEntries * 4 / 3 + 1) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > DedupCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 记录一次消息
+     * @return 首次出现（或上次出现已超过时间窗口）返回true；窗口内的重复消息返回false
+     */
+    public synchronized boolean markFirstSeen(String key) {
+        long now = System.currentTimeMillis();
+        expire(now);
+
+        Long firstSeen = seen.get(key);
+        if (firstSeen != null) {
+            duplicateCount++;
+            return false;
+        }
+        seen.put(key, now);
+        return true;
+    }
+
+    /**
+     * 从最早的条目开始清理过期记录，遇到未过期的即停止
+     */
+    private void expire(long now) {
+        Iterator<Long> iterator = seen.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next() < windowMs) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+}
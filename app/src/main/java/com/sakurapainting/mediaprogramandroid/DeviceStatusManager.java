@@ -4,6 +4,7 @@ import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.content.res.Configuration;
 import android.os.Build;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -26,10 +27,30 @@ public class DeviceStatusManager {
     
     private Context context;
     
+    // 设备规格缓存，屏幕配置（方向、尺寸）变化时重新采集
+    private JSONObject cachedSpecs;
+    private String cachedSpecsKey;
+    
     public DeviceStatusManager(Context context) {
         this.context = context;
     }
     
+    /**
+     * 获取缓存的设备规格信息
+     * 规格采集涉及WindowManager、反射和字符串格式化，注册时不需要每次重新计算；
+     * 屏幕配置未变化时返回同一个对象，调用方不要修改它
+     */
+    public synchronized JSONObject getCachedSpecifications() {
+        Configuration configuration = context.getResources().getConfiguration();
+        String key = configuration.orientation + "/" + configuration.screenLayout + "/"
+                + configuration.screenWidthDp + "x" + configuration.screenHeightDp;
+        if (cachedSpecs == null || !key.equals(cachedSpecsKey)) {
+            cachedSpecs = getDeviceSpecifications();
+            cachedSpecsKey = key;
+        }
+        return cachedSpecs;
+    }
+    
     /**
      * 获取设备规格信息
      */
@@ -81,7 +102,8 @@ public class DeviceStatusManager {
                 } catch (Exception e) {
                     // Android 4.4 fallback - 使用可用内存估算
                     long availMemoryMB = memoryInfo.availMem / (1024 * 1024);
-                    specs.put("totalMemoryMB", availMemoryMB * 3); // 粗略估算总内存为可用内存的3倍
+                    // 粗略估算总内存为可用内存的3倍，按256MB取整，避免规格指纹随可用内存波动
+                    specs.put("totalMemoryMB", (availMemoryMB * 3 + 128) / 256 * 256);
                     specs.put("note", "totalMem estimated for Android 4.4 compatibility");
                     Log.w(TAG, "使用估算方式获取总内存: " + e.getMessage());
                 }
@@ -286,7 +308,7 @@ public class DeviceStatusManager {
             // 内部存储
             android.os.StatFs internal = new android.os.StatFs(android.os.Environment.getDataDirectory().getPath());
             long internalTotal = (long) internal.getBlockCount() * internal.getBlockSize();
-            long internalAvailable = (long) internal.getAvailableBlocks() * internal.getBlockSize();
+            long internalAvailable = getAvailableBytes(android.os.Environment.getDataDirectory());
             
             storage.put("internalTotalMB", internalTotal / (1024 * 1024));
             storage.put("internalAvailableMB", internalAvailable / (1024 * 1024));
@@ -295,7 +317,7 @@ public class DeviceStatusManager {
             if (android.os.Environment.getExternalStorageState().equals(android.os.Environment.MEDIA_MOUNTED)) {
                 android.os.StatFs external = new android.os.StatFs(android.os.Environment.getExternalStorageDirectory().getPath());
                 long externalTotal = (long) external.getBlockCount() * external.getBlockSize();
-                long externalAvailable = (long) external.getAvailableBlocks() * external.getBlockSize();
+                long externalAvailable = getAvailableBytes(android.os.Environment.getExternalStorageDirectory());
                 
                 storage.put("externalTotalMB", externalTotal / (1024 * 1024));
                 storage.put("externalAvailableMB", externalAvailable / (1024 * 1024));
@@ -307,4 +329,18 @@ public class DeviceStatusManager {
         
         return storage;
     }
+    
+    /**
+     * 获取路径所在存储的可用空间（字节），与状态上报中的availableMB口径一致
+     * @return 无法读取时返回-1
+     */
+    public static long getAvailableBytes(java.io.File path) {
+        try {
+            android.os.StatFs stat = new android.os.StatFs(path.getPath());
+            return (long) stat.getAvailableBlocks() * stat.getBlockSize();
+        } catch (Exception e) {
+            Log.w(TAG, "无法获取可用空间: " + path, e);
+            return -1;
+        }
+    }
 }
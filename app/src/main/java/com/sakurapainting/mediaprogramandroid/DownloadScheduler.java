@@ -0,0 +1,282 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 下载调度器
+ * API 19上所有AsyncTask共用一个串行执行器，一个大视频下载会挡住后面所有图片加载。
+ * 这里把下载分成三个独立的有界线程池：
+ * - 紧急（马上要播放的视频）：固定线程数，队列不限；
+ * - 图片（马上要显示的小文件）：单独的线程，两个大视频同时下载也不会挡住图片；
+ * - 后台（预取）：线程优先级较低，队列有上限，满了直接拒绝。
+ * 同一个key同时只有一个任务；后台任务被紧急请求时提升优先级：还在排队就移到紧急池，
+ * 已在运行则把线程优先级调回正常。任务可以按key取消。
+ */
+public class DownloadScheduler {
+
+    private static final String TAG = "DownloadScheduler";
+
+    private static final int URGENT_THREADS = 2;
+    private static final int IMAGE_THREADS = 2;
+    private static final int BACKGROUND_THREADS = 1;
+    private static final int BACKGROUND_QUEUE_CAPACITY = 32;
+
+    private static DownloadScheduler defaultScheduler;
+
+    public enum Priority {
+        URGENT,      // 马上要播放
+        IMAGE,       // 马上要显示的图片
+        BACKGROUND   // 预取
+    }
+
+    /**
+     * 调度执行的任务
+     */
+    public interface Job {
+        /**
+         * 在调度线程上执行，应定期检查handle.isCancelled()
+         */
+        void run(Handle handle);
+
+        /**
+         * 任务被取消时调用（任意线程），用于断开连接让阻塞操作尽快返回
+         */
+        void cancel();
+    }
+
+    /**
+     * 已提交任务的句柄
+     */
+    public final class Handle implements Runnable {
+        private final String key;
+        private final Job job;
+        private final long submittedAt = System.currentTimeMillis();
+        private volatile Priority priority;
+        private volatile boolean cancelled = false;
+        private Thread thread;
+        private boolean started = false;
+
+        Handle(String key, Priority priority, Job job) {
+            this.key = key;
+            this.priority = priority;
+            this.job = job;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            synchronized (DownloadScheduler.this) {
+                if (cancelled) return;
+                started = true;
+                thread = Thread.currentThread();
+                thread.setPriority(priority == Priority.BACKGROUND ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY);
+                long wait = System.currentTimeMillis() - submittedAt;
+                lastQueueWaitMs = wait;
+                maxQueueWaitMs = Math.max(maxQueueWaitMs, wait);
+            }
+            try {
+                job.run(this);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "下载任务出错: " + key, e);
+            } finally {
+                synchronized (DownloadScheduler.this) {
+                    thread = null;
+                    Thread.interrupted();
+                    if (jobs.get(key) == this) {
+                        jobs.remove(key);
+                    }
+                    if (!cancelled) {
+                        completedCount++;
+                    }
+                }
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor urgentExecutor;
+    private final ThreadPoolExecutor imageExecutor;
+    private final ThreadPoolExecutor backgroundExecutor;
+    private final Map<String, Handle> jobs = new HashMap<>();
+
+    // 指标
+    private long submittedCount = 0;
+    private long completedCount = 0;
+    private long cancelledCount = 0;
+    private long promotedCount = 0;
+    private long rejectedCount = 0;
+    private long lastQueueWaitMs = -1;
+    private long maxQueueWaitMs = 0;
+
+    /**
+     * 进程内共用的调度器
+     */
+    public static synchronized DownloadScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new DownloadScheduler(URGENT_THREADS, IMAGE_THREADS, BACKGROUND_THREADS,
+                    BACKGROUND_QUEUE_CAPACITY);
+        }
+        return defaultScheduler;
+    }
+
+    public DownloadScheduler(int urgentThreads, int imageThreads, int backgroundThreads, int backgroundQueueCapacity) {
+        urgentExecutor = new ThreadPoolExecutor(urgentThreads, urgentThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("download-urgent"));
+        urgentExecutor.allowCoreThreadTimeOut(true);
+        imageExecutor = new ThreadPoolExecutor(imageThreads, imageThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("download-image"));
+        imageExecutor.allowCoreThreadTimeOut(true);
+        backgroundExecutor = new ThreadPoolExecutor(backgroundThreads, backgroundThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(backgroundQueueCapacity), threadFactory("download-background"));
+        backgroundExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * 提交任务；同一key已有任务时不重复提交，按需提升其优先级后返回已有的句柄
+     * @return 任务句柄，后台队列已满时返回null
+     */
+    public synchronized Handle submit(String key, Priority priority, Job job) {
+        Handle existing = jobs.get(key);
+        if (existing != null) {
+            if (priority == Priority.URGENT) {
+                promote(existing);
+            }
+            return existing;
+        }
+
+        Handle handle = new Handle(key, priority, job);
+        try {
+            executorFor(priority).execute(handle);
+        } catch (RejectedExecutionException e) {
+            rejectedCount++;
+            Log.w(TAG, "后台下载队列已满，拒绝: " + key);
+            return null;
+        }
+        jobs.put(key, handle);
+        submittedCount++;
+        return handle;
+    }
+
+    /**
+     * 查找key对应的未完成任务
+     */
+    public synchronized Handle find(String key) {
+        return jobs.get(key);
+    }
+
+    /**
+     * 把后台任务提升为紧急任务（图片任务已在独立线程池上，不变）
+     * @return key对应的任务存在返回true
+     */
+    public synchronized boolean promote(String key) {
+        Handle handle = jobs.get(key);
+        if (handle == null) return false;
+        promote(handle);
+        return true;
+    }
+
+    private void promote(Handle handle) {
+        if (handle.priority != Priority.BACKGROUND || handle.cancelled) return;
+        handle.priority = Priority.URGENT;
+        promotedCount++;
+        if (!handle.started && backgroundExecutor.remove(handle)) {
+            // 还在后台队列里，移到紧急池
+            urgentExecutor.execute(handle);
+            Log.i(TAG, "后台任务转为紧急: " + handle.key);
+        } else if (handle.thread != null) {
+            // 已在后台线程上运行，恢复正常线程优先级
+            handle.thread.setPriority(Thread.NORM_PRIORITY);
+            Log.i(TAG, "运行中的后台任务提升优先级: " + handle.key);
+        }
+    }
+
+    /**
+     * 取消key对应的任务：排队中的直接移除，运行中的通知任务中断
+     * @return key对应的任务存在返回true
+     */
+    public boolean cancel(String key) {
+        final Handle handle;
+        synchronized (this) {
+            handle = jobs.remove(key);
+            if (handle == null || handle.cancelled) return false;
+            handle.cancelled = true;
+            cancelledCount++;
+            if (!handle.started) {
+                executorFor(handle.priority).remove(handle);
+            } else if (handle.thread != null) {
+                handle.thread.interrupt();
+            }
+        }
+        Log.i(TAG, "取消下载任务: " + key);
+        handle.job.cancel();
+        return true;
+    }
+
+    private ThreadPoolExecutor executorFor(Priority priority) {
+        switch (priority) {
+            case URGENT:
+                return urgentExecutor;
+            case IMAGE:
+                return imageExecutor;
+            default:
+                return backgroundExecutor;
+        }
+    }
+
+    /**
+     * 获取调度指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("urgentQueued", urgentExecutor.getQueue().size());
+            metrics.put("urgentRunning", urgentExecutor.getActiveCount());
+            metrics.put("imageQueued", imageExecutor.getQueue().size());
+            metrics.put("imageRunning", imageExecutor.getActiveCount());
+            metrics.put("backgroundQueued", backgroundExecutor.getQueue().size());
+            metrics.put("backgroundRunning", backgroundExecutor.getActiveCount());
+            metrics.put("submitted", submittedCount);
+            metrics.put("completed", completedCount);
+            metrics.put("cancelled", cancelledCount);
+            metrics.put("promoted", promotedCount);
+            metrics.put("rejected", rejectedCount);
+            metrics.put("lastQueueWaitMs", lastQueueWaitMs);
+            metrics.put("maxQueueWaitMs", maxQueueWaitMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建下载调度指标失败", e);
+        }
+        return metrics;
+    }
+}
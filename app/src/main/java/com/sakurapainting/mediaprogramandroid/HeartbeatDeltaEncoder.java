@@ -0,0 +1,100 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * 心跳增量编码器
+ * 每隔固定次数发送一次完整关键帧，其间只发送相对上一次心跳发生变化的顶层字段。
+ * 每条心跳带递增序号seq和所基于的关键帧序号keyframeSeq，服务端发现序号不连续时可请求关键帧。
+ */
+public class HeartbeatDeltaEncoder {
+
+    public static final String ENCODING_KEYFRAME = "keyframe";
+    public static final String ENCODING_DELTA = "delta";
+
+    private final int keyframeInterval;
+
+    private JSONObject lastData;
+    private long seq = 0;
+    private long keyframeSeq = 0;
+    private int sinceKeyframe = 0;
+    private boolean forceKeyframe = true;
+
+    public HeartbeatDeltaEncoder(int keyframeInterval) {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    /**
+     * 把本次状态编码进心跳消息：写入encoding、seq、keyframeSeq、data，增量帧还会写入removed
+     */
+    public synchronized void encode(JSONObject message, JSONObject data) throws JSONException {
+        seq++;
+        boolean keyframe = forceKeyframe || lastData == null || sinceKeyframe >= keyframeInterval - 1;
+
+        if (keyframe) {
+            keyframeSeq = seq;
+            sinceKeyframe = 0;
+            forceKeyframe = false;
+            message.put("encoding", ENCODING_KEYFRAME);
+            message.put("data", data);
+        } else {
+            sinceKeyframe++;
+            JSONObject changed = new JSONObject();
+            JSONArray removed = new JSONArray();
+
+            Iterator<String> keys = data.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                Object value = data.get(key);
+                if (!sameValue(lastData.opt(key), value)) {
+                    changed.put(key, value);
+                }
+            }
+            Iterator<String> lastKeys = lastData.keys();
+            while (lastKeys.hasNext()) {
+                String key = lastKeys.next();
+                if (!data.has(key)) {
+                    removed.put(key);
+                }
+            }
+
+            message.put("encoding", ENCODING_DELTA);
+            message.put("data", changed);
+            if (removed.length() > 0) {
+                message.put("removed", removed);
+            }
+        }
+
+        message.put("seq", seq);
+        message.put("keyframeSeq", keyframeSeq);
+        lastData = data;
+    }
+
+    /**
+     * 比较两个字段值；嵌套对象按序列化结果比较
+     */
+    private static boolean sameValue(Object previous, Object current) {
+        if (previous == null) {
+            return false;
+        }
+        if (previous instanceof JSONObject || previous instanceof JSONArray) {
+            return previous.toString().equals(current.toString());
+        }
+        return previous.equals(current);
+    }
+
+    /**
+     * 下一条心跳强制发送关键帧（重连、发送失败或服务端请求时调用）
+     */
+    public synchronized void requestKeyframe() {
+        forceKeyframe = true;
+    }
+
+    public synchronized long getSeq() {
+        return seq;
+    }
+}
@@ -0,0 +1,146 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 心跳调度器
+ * 在独立的后台线程上按固定速率执行心跳任务（采样系统状态并发布），不占用主线程；
+ * 每次触发时间以启动时刻加整数倍周期为基准，不会因任务耗时累积漂移。
+ * 同时记录实际触发时间相对计划时间的抖动。
+ */
+public class HeartbeatScheduler {
+
+    private static final String TAG = "HeartbeatScheduler";
+
+    private final Runnable task;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+
+    // 节拍基准在start/setPeriod中设置，其余字段只在调度线程上写入
+    private volatile long periodNanos;
+    private volatile long startNanos;
+    private volatile long ticks;
+    private volatile long lastPlannedNanos;
+    private volatile long lastJitterMs;
+    private volatile long maxJitterMs;
+    private volatile long totalJitterMs;
+    private volatile long lastDurationMs;
+    private volatile long maxDurationMs;
+    private volatile long tickCount;
+
+    /**
+     * @param executor 心跳专用的单线程调度器
+     * @param task 心跳任务，在调度线程上执行
+     */
+    public HeartbeatScheduler(ScheduledExecutorService executor, Runnable task) {
+        this.executor = executor;
+        this.task = task;
+    }
+
+    /**
+     * initialDelayMs后执行第一次，之后按periodMs固定速率执行；已在运行时先停止再重新开始
+     */
+    public synchronized void start(long periodMs, long initialDelayMs) {
+        stop();
+        schedule(Math.max(0, initialDelayMs), periodMs);
+        Log.i(TAG, "心跳已启动，间隔 " + periodMs + "ms，首次延迟 " + initialDelayMs + "ms");
+    }
+
+    /**
+     * 修改间隔：下一次心跳在上一次计划时间加新间隔时触发（已过期则立即触发），之后按新间隔固定速率执行；
+     * 本轮调度还没有触发过时保持原定的首次触发时间。可在心跳任务内部调用
+     */
+    public synchronized void setPeriod(long periodMs) {
+        if (future == null) return;
+        long period = Math.max(1000, periodMs);
+        if (TimeUnit.MILLISECONDS.toNanos(period) == periodNanos) return;
+        future.cancel(false);
+        long next = ticks == 0 ? startNanos : lastPlannedNanos + TimeUnit.MILLISECONDS.toNanos(period);
+        long delayMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()));
+        schedule(delayMs, period);
+        Log.d(TAG, "心跳间隔调整为 " + period + "ms，" + delayMs + "ms后触发");
+    }
+
+    public long getPeriodMs() {
+        return TimeUnit.NANOSECONDS.toMillis(periodNanos);
+    }
+
+    private void schedule(long initialDelayMs, long periodMs) {
+        long period = Math.max(1000, periodMs);
+        // 提交任务前写入，调度线程可见
+        periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+        startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelayMs);
+        ticks = 0;
+        lastPlannedNanos = 0;
+        future = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, initialDelayMs, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止调度，正在执行的一次心跳会执行完
+     */
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        long scheduled = startNanos + ticks * periodNanos;
+        ticks++;
+        lastPlannedNanos = scheduled;
+        long jitterMs = Math.abs(TimeUnit.NANOSECONDS.toMillis(now - scheduled));
+        lastJitterMs = jitterMs;
+        if (jitterMs > maxJitterMs) {
+            maxJitterMs = jitterMs;
+        }
+        totalJitterMs += jitterMs;
+        tickCount++;
+
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // 单次失败不能终止固定速率调度
+            Log.e(TAG, "心跳任务执行失败", e);
+        }
+
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - now);
+        lastDurationMs = durationMs;
+        if (durationMs > maxDurationMs) {
+            maxDurationMs = durationMs;
+        }
+    }
+
+    /**
+     * 获取调度指标（用于状态上报）
+     */
+    public JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            long count = tickCount;
+            metrics.put("ticks", count);
+            metrics.put("periodMs", getPeriodMs());
+            metrics.put("lastJitterMs", lastJitterMs);
+            metrics.put("maxJitterMs", maxJitterMs);
+            metrics.put("avgJitterMs", count > 0 ? (double) totalJitterMs / count : 0);
+            metrics.put("lastDurationMs", lastDurationMs);
+            metrics.put("maxDurationMs", maxDurationMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建心跳指标失败", e);
+        }
+        return metrics;
+    }
+}
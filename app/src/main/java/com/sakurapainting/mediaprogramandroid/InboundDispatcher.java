@@ -0,0 +1,222 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 入站消息分发器
+ * 把Paho回调线程收到的消息交给工作线程池处理，避免耗时处理阻塞心跳（PINGREQ）。
+ * 同一主题的消息按到达顺序串行处理，不同主题之间并行；
+ * 收件箱有容量上限，满时阻塞回调线程直到有空位：Paho在messageArrived返回后才确认QoS 1消息，
+ * 丢弃后返回会让服务器以为已送达，所以宁可让Paho停止读取形成背压，也不丢消息。
+ */
+public class InboundDispatcher {
+
+    private static final String TAG = "InboundDispatcher";
+
+    // 单个主题连续处理多少条后让出线程，避免一个主题占满工作线程
+    private static final int LANE_BATCH = 16;
+
+    /**
+     * 入站消息处理器，在工作线程上执行
+     */
+    public interface MessageHandler {
+        void handle(String topic, byte[] payload);
+    }
+
+    /**
+     * 待处理的入站消息
+     */
+    private static class InboundMessage {
+        final String topic;
+        final byte[] payload;
+        final MessageHandler handler;
+        final long enqueueTime;
+
+        InboundMessage(String topic, byte[] payload, MessageHandler handler) {
+            this.topic = topic;
+            this.payload = payload;
+            this.handler = handler;
+            this.enqueueTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * 单个主题的FIFO队列，同一时间最多被一个工作线程处理
+     */
+    private class TopicLane implements Runnable {
+        private final ArrayDeque<InboundMessage> pending = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        void add(InboundMessage msg) {
+            boolean submit;
+            synchronized (this) {
+                pending.addLast(msg);
+                submit = !scheduled;
+                scheduled = true;
+            }
+            if (submit) {
+                workers.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                InboundMessage msg;
+                synchronized (this) {
+                    msg = pending.pollFirst();
+                    if (msg == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                process(msg);
+            }
+            // 还有剩余消息，重新排队让其他主题有机会执行
+            workers.execute(this);
+        }
+    }
+
+    private final ThreadPoolExecutor workers;
+    private final ConcurrentHashMap<String, TopicLane> lanes = new ConcurrentHashMap<>();
+    private final Semaphore inbox;
+    private final int inboxCapacity;
+    private final long offerTimeoutMs;
+
+    // 指标
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong handledCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalHandleNanos = new AtomicLong();
+    private final AtomicLong maxHandleNanos = new AtomicLong();
+
+    public InboundDispatcher(int workerCount, int inboxCapacity, long offerTimeoutMs) {
+        this.inboxCapacity = inboxCapacity;
+        this.inbox = new Semaphore(inboxCapacity);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "mqtt-inbound-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 提交一条入站消息，在Paho回调线程上调用；收件箱满时阻塞到有空位
+     * @throws InterruptedException 等待时被中断，消息没有入队，调用方不能确认该消息
+     */
+    public void dispatch(String topic, byte[] payload, MessageHandler handler) throws InterruptedException {
+        if (!inbox.tryAcquire(offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+            blockedCount.incrementAndGet();
+            Log.w(TAG, "收件箱已满，等待处理腾出空位: " + topic);
+            inbox.acquire();
+        }
+
+        int depth = queueDepth.incrementAndGet();
+        updateMax(maxQueueDepth, depth);
+
+        TopicLane lane = lanes.get(topic);
+        if (lane == null) {
+            TopicLane created = new TopicLane();
+            lane = lanes.putIfAbsent(topic, created);
+            if (lane == null) {
+                lane = created;
+            }
+        }
+        lane.add(new InboundMessage(topic, payload, handler));
+    }
+
+    /**
+     * 在工作线程上执行处理器并记录耗时
+     */
+    private void process(InboundMessage msg) {
+        long start = System.nanoTime();
+        totalWaitNanos.addAndGet(start - msg.enqueueTime);
+        queueDepth.decrementAndGet();
+        inbox.release();
+
+        try {
+            msg.handler.handle(msg.topic, msg.payload);
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            Log.e(TAG, "处理入站消息异常: " + msg.topic, e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            totalHandleNanos.addAndGet(elapsed);
+            updateMax(maxHandleNanos, elapsed);
+            handledCount.incrementAndGet();
+        }
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 获取分发指标（用于状态上报）
+     */
+    public JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            long handled = handledCount.get();
+            metrics.put("queueDepth", queueDepth.get());
+            metrics.put("maxQueueDepth", maxQueueDepth.get());
+            metrics.put("inboxCapacity", inboxCapacity);
+            metrics.put("handled", handled);
+            metrics.put("blocked", blockedCount.get());
+            metrics.put("failed", failedCount.get());
+            metrics.put("avgWaitMs", handled > 0 ? totalWaitNanos.get() / handled / 1000000.0 : 0);
+            metrics.put("avgHandleMs", handled > 0 ? totalHandleNanos.get() / handled / 1000000.0 : 0);
+            metrics.put("maxHandleMs", maxHandleNanos.get() / 1000000.0);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建分发指标失败", e);
+        }
+        return metrics;
+    }
+
+    // Getter方法
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+}
@@ -0,0 +1,33 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * JSON编解码器 - 默认编码，所有主题都支持
+ */
+public class JsonCodec implements PayloadCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(JSONObject message) throws IOException {
+        return message.toString().getBytes("UTF-8");
+    }
+
+    @Override
+    public JSONObject decode(byte[] payload) throws IOException {
+        try {
+            return new JSONObject(new String(payload, "UTF-8"));
+        } catch (JSONException e) {
+            throw new IOException("JSON解析失败: " + e.getMessage());
+        }
+    }
+}
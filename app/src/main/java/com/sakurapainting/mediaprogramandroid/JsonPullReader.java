@@ -0,0 +1,309 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 轻量级流式JSON读取器
+ * 直接在UTF-8字节数组上顺序读取，不把整个载荷转成String，也不建立对象树；
+ * 字段名与调用方给出的候选名逐字节比较，只有真正需要的字符串值才会分配。
+ * 实例可通过reset重复使用，非线程安全。
+ */
+public class JsonPullReader {
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private StringBuilder escapeBuilder;
+
+    public void reset(byte[] data) {
+        reset(data, 0, data.length);
+    }
+
+    public void reset(byte[] data, int offset, int length) {
+        this.buf = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    // ---------------- 结构 ----------------
+
+    public void beginObject() throws IOException {
+        expect('{');
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+    }
+
+    /**
+     * 当前对象/数组中是否还有元素，会跳过元素之间的逗号
+     */
+    public boolean hasNext() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == ',') {
+            pos++;
+            c = peekNonWhitespace();
+        }
+        return c != '}' && c != ']';
+    }
+
+    /**
+     * 下一个值是否为null字面量
+     */
+    public boolean peekNull() throws IOException {
+        return peekNonWhitespace() == 'n';
+    }
+
+    /**
+     * 下一个值是否为对象
+     */
+    public boolean peekObject() throws IOException {
+        return peekNonWhitespace() == '{';
+    }
+
+    /**
+     * 读取字段名并与候选名比较
+     * @return 匹配的候选名下标，没有匹配时返回-1
+     */
+    public int nextName(String[] candidates) throws IOException {
+        expect('"');
+        int start = pos;
+        boolean escaped = false;
+        while (pos < end && buf[pos] != '"') {
+            if (buf[pos] == '\\') {
+                escaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        if (pos >= end) {
+            throw new IOException("字段名未结束");
+        }
+        int length = pos - start;
+        pos++; // 结束引号
+        expect(':');
+
+        if (escaped) {
+            // 带转义的字段名极少见，按普通字符串比较
+            String name = decodeEscaped(start, start + length);
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i].equals(name)) return i;
+            }
+            return -1;
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            if (asciiEquals(candidates[i], start, length)) return i;
+        }
+        return -1;
+    }
+
+    private boolean asciiEquals(String candidate, int start, int length) {
+        if (candidate.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != candidate.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // ---------------- 值 ----------------
+
+    /**
+     * 读取字符串值；null返回null，数字和布尔值返回其字面文本
+     */
+    public String nextString() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            pos++;
+            int start = pos;
+            boolean escaped = false;
+            while (pos < end && buf[pos] != '"') {
+                if (buf[pos] == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+                pos++;
+            }
+            if (pos >= end) {
+                throw new IOException("字符串未结束");
+            }
+            int stop = pos;
+            pos++;
+            return escaped ? decodeEscaped(start, stop)
+                    : new String(buf, start, stop - start, StandardCharsets.UTF_8);
+        }
+        if (c == 'n') {
+            skipLiteral();
+            return null;
+        }
+        if (c == '{' || c == '[') {
+            throw new IOException("期望字符串，实际为对象或数组");
+        }
+        int start = pos;
+        skipLiteral();
+        return new String(buf, start, pos - start, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 读取整数值；支持带引号的数字，null或无法解析时返回defaultValue
+     */
+    public long nextLong(long defaultValue) throws IOException {
+        int c = peekNonWhitespace();
+        boolean quoted = c == '"';
+        if (quoted) {
+            pos++;
+        } else if (c == 'n' || c == 't' || c == 'f') {
+            skipLiteral();
+            return defaultValue;
+        }
+
+        long value = 0;
+        boolean negative = false;
+        boolean digits = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos] - '0');
+            digits = true;
+            pos++;
+        }
+        // 小数部分和指数部分截断
+        while (pos < end && isLiteralChar(buf[pos])) {
+            pos++;
+        }
+        if (quoted) {
+            while (pos < end && buf[pos] != '"') pos++;
+            pos++;
+        }
+        if (!digits) return defaultValue;
+        return negative ? -value : value;
+    }
+
+    /**
+     * 跳过一个完整的值（包括嵌套的对象和数组）
+     */
+    public void skipValue() throws IOException {
+        int c = peekNonWhitespace();
+        if (c == '"') {
+            pos++;
+            while (pos < end && buf[pos] != '"') {
+                if (buf[pos] == '\\') pos++;
+                pos++;
+            }
+            pos++;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                byte b = buf[pos++];
+                if (b == '"') {
+                    while (pos < end && buf[pos] != '"') {
+                        if (buf[pos] == '\\') pos++;
+                        pos++;
+                    }
+                    pos++;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+            } while (depth > 0 && pos < end);
+            if (depth > 0) {
+                throw new IOException("对象或数组未结束");
+            }
+        } else {
+            skipLiteral();
+        }
+    }
+
+    // ---------------- 内部 ----------------
+
+    private void skipLiteral() throws IOException {
+        int start = pos;
+        while (pos < end && isLiteralChar(buf[pos])) {
+            pos++;
+        }
+        if (pos == start) {
+            throw new IOException("无效的JSON值，位置: " + pos);
+        }
+    }
+
+    private static boolean isLiteralChar(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                || b == '-' || b == '+' || b == '.';
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b;
+            }
+            pos++;
+        }
+        throw new IOException("JSON数据不完整");
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peekNonWhitespace();
+        if (c != expected) {
+            throw new IOException("期望 '" + expected + "'，实际为 '" + (char) c + "'，位置: " + pos);
+        }
+        pos++;
+    }
+
+    /**
+     * 解码带转义的字符串
+     */
+    private String decodeEscaped(int start, int stop) throws IOException {
+        // 先按UTF-8解码，再处理转义序列（转义符都是ASCII，不受多字节字符影响）
+        String raw = new String(buf, start, stop - start, StandardCharsets.UTF_8);
+        if (escapeBuilder == null) {
+            escapeBuilder = new StringBuilder(raw.length());
+        }
+        StringBuilder sb = escapeBuilder;
+        sb.setLength(0);
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i >= raw.length()) {
+                throw new IOException("转义序列不完整");
+            }
+            char e = raw.charAt(i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 >= raw.length()) {
+                        throw new IOException("unicode转义不完整");
+                    }
+                    sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    // \" \\ \/ 原样保留字符
+                    sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 链路质量监测
+ * 汇总三类测量：
+ * - 回显探测：设备向自己的回显主题发QoS 0消息，代理转发回来即一次往返（设备-代理-设备）的RTT；
+ *   超时未回来的探测计为丢失；
+ * - 发布确认延迟：QoS 1消息从交给客户端到收到PUBACK的时间；
+ * - 两者合成0~100的链路评分，供状态上报和下载调度等模块读取。
+ * 连接后收到第一个回显之前不统计丢失，避免代理未放行回显主题时把链路误判为全丢。
+ */
+public class LinkQualityMonitor {
+
+    private static final String TAG = "LinkQualityMonitor";
+
+    // 最近样本数，用于计算分位数
+    private static final int SAMPLE_WINDOW = 64;
+    // 丢包率按最近若干次探测计算
+    private static final int LOSS_WINDOW = 20;
+    // 超过此时间未回显视为丢失
+    private static final long ECHO_TIMEOUT_MS = 10000;
+
+    // 评分区间：低于GOOD满分，高于BAD零分，中间线性
+    private static final long RTT_GOOD_MS = 150;
+    private static final long RTT_BAD_MS = 2000;
+    private static final long ACK_GOOD_MS = 300;
+    private static final long ACK_BAD_MS = 5000;
+    private static final double LOSS_BAD = 0.2;
+
+    public static final int SCORE_UNKNOWN = -1;
+
+    private final long[] rttSamples = new long[SAMPLE_WINDOW];
+    private int rttCount = 0;
+    private int rttNext = 0;
+    private final long[] ackSamples = new long[SAMPLE_WINDOW];
+    private int ackCount = 0;
+    private int ackNext = 0;
+    // 最近探测的结果，true表示丢失
+    private final boolean[] probeLost = new boolean[LOSS_WINDOW];
+    private int probeCount = 0;
+    private int probeNext = 0;
+
+    // 已发出、等待回显的探测：序号 -> 发出时间（纳秒），按发出顺序排列
+    private final LinkedHashMap<Long, Long> pending = new LinkedHashMap<>();
+    private long nextSeq = 0;
+    private boolean echoSeen = false;
+
+    private long probesSent = 0;
+    private long echoesReceived = 0;
+    private long probesLost = 0;
+
+    /**
+     * 新连接建立：上一连接未回来的探测不计入本连接的丢失
+     */
+    public synchronized void onConnected() {
+        pending.clear();
+        echoSeen = false;
+    }
+
+    /**
+     * 登记一次探测，返回放入载荷的序号
+     */
+    public synchronized long beginProbe() {
+        long now = System.nanoTime();
+        expirePending(now);
+        long seq = ++nextSeq;
+        pending.put(seq, now);
+        probesSent++;
+        return seq;
+    }
+
+    /**
+     * 探测未能发出（例如连接刚断开），撤销登记
+     */
+    public synchronized void cancelProbe(long seq) {
+        if (pending.remove(seq) != null) {
+            probesSent--;
+        }
+    }
+
+    /**
+     * 收到回显；已超时计为丢失的探测晚到时忽略
+     */
+    public synchronized void onEcho(long seq) {
+        Long sentAt = pending.remove(seq);
+        if (sentAt == null) return;
+        echoSeen = true;
+        echoesReceived++;
+        rttSamples[rttNext] = (System.nanoTime() - sentAt) / 1000000L;
+        rttNext = (rttNext + 1) % SAMPLE_WINDOW;
+        rttCount = Math.min(rttCount + 1, SAMPLE_WINDOW);
+        recordProbe(false);
+    }
+
+    /**
+     * 记录一次发布确认延迟（QoS 1及以上）
+     */
+    public synchronized void onPublishAck(long latencyMs) {
+        ackSamples[ackNext] = latencyMs;
+        ackNext = (ackNext + 1) % SAMPLE_WINDOW;
+        ackCount = Math.min(ackCount + 1, SAMPLE_WINDOW);
+    }
+
+    private void recordProbe(boolean lost) {
+        probeLost[probeNext] = lost;
+        probeNext = (probeNext + 1) % LOSS_WINDOW;
+        probeCount = Math.min(probeCount + 1, LOSS_WINDOW);
+    }
+
+    /**
+     * 把超时的探测计为丢失（收到过回显之后才计）
+     */
+    private void expirePending(long now) {
+        long timeoutNanos = ECHO_TIMEOUT_MS * 1000000L;
+        Iterator<Map.Entry<Long, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Long> entry = it.next();
+            if (now - entry.getValue() < timeoutNanos) break;
+            it.remove();
+            if (echoSeen) {
+                probesLost++;
+                recordProbe(true);
+            }
+        }
+    }
+
+    private double lossRate() {
+        if (probeCount == 0) return -1;
+        int lost = 0;
+        for (int i = 0; i < probeCount; i++) {
+            if (probeLost[i]) lost++;
+        }
+        return (double) lost / probeCount;
+    }
+
+    /**
+     * 样本的分位数（0~1），没有样本返回-1
+     */
+    private static long percentile(long[] samples, int count, double p) {
+        if (count == 0) return -1;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+
+    private static double linear(double value, double good, double bad) {
+        if (value <= good) return 1;
+        if (value >= bad) return 0;
+        return 1 - (value - good) / (bad - good);
+    }
+
+    /**
+     * 链路评分0~100，越高越好；还没有任何测量时返回SCORE_UNKNOWN
+     * RTT p90、丢包率、确认延迟p90分别占40%、40%、20%，缺少的分项不参与加权
+     */
+    public synchronized int getScore() {
+        expirePending(System.nanoTime());
+        double weighted = 0;
+        double weights = 0;
+        long rttP90 = percentile(rttSamples, rttCount, 0.9);
+        if (rttP90 >= 0) {
+            weighted += 0.4 * linear(rttP90, RTT_GOOD_MS, RTT_BAD_MS);
+            weights += 0.4;
+        }
+        double loss = lossRate();
+        if (loss >= 0) {
+            weighted += 0.4 * linear(loss, 0, LOSS_BAD);
+            weights += 0.4;
+        }
+        long ackP90 = percentile(ackSamples, ackCount, 0.9);
+        if (ackP90 >= 0) {
+            weighted += 0.2 * linear(ackP90, ACK_GOOD_MS, ACK_BAD_MS);
+            weights += 0.2;
+        }
+        if (weights == 0) return SCORE_UNKNOWN;
+        return (int) Math.round(100 * weighted / weights);
+    }
+
+    /**
+     * 评分分级：good（80以上）、fair（50以上）、poor、unknown
+     */
+    public String getQuality() {
+        int score = getScore();
+        if (score == SCORE_UNKNOWN) return "unknown";
+        if (score >= 80) return "good";
+        if (score >= 50) return "fair";
+        return "poor";
+    }
+
+    /**
+     * 获取链路指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            int score = getScore();
+            metrics.put("score", score);
+            metrics.put("quality", getQuality());
+            metrics.put("rttP50Ms", percentile(rttSamples, rttCount, 0.5));
+            metrics.put("rttP90Ms", percentile(rttSamples, rttCount, 0.9));
+            metrics.put("rttP99Ms", percentile(rttSamples, rttCount, 0.99));
+            metrics.put("ackP50Ms", percentile(ackSamples, ackCount, 0.5));
+            metrics.put("ackP90Ms", percentile(ackSamples, ackCount, 0.9));
+            double loss = lossRate();
+            metrics.put("loss", loss >= 0 ? Math.round(loss * 1000) / 1000.0 : -1);
+            metrics.put("probes", probesSent);
+            metrics.put("echoes", echoesReceived);
+            metrics.put("lost", probesLost);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建链路指标失败", e);
+        }
+        return metrics;
+    }
+}
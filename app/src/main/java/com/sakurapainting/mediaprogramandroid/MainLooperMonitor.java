@@ -0,0 +1,97 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主线程卡顿监测
+ * 后台线程定期向主线程投递一个空探针，记录从投递到执行的延迟；
+ * 延迟超过阈值计为一次卡顿，并累计卡顿时长。上一个探针未执行时不再投递。
+ */
+public class MainLooperMonitor {
+
+    private static final String TAG = "MainLooperMonitor";
+
+    private static final long PROBE_INTERVAL_MS = 1000;
+    private static final long STALL_THRESHOLD_MS = 100;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> future;
+
+    private volatile boolean probePending = false;
+    private volatile long postedAt;
+    private volatile long lastLagMs;
+    private volatile long maxLagMs;
+    private volatile long stallCount;
+    private volatile long totalStallMs;
+
+    private final Runnable probe = new Runnable() {
+        @Override
+        public void run() {
+            long lag = SystemClock.uptimeMillis() - postedAt;
+            lastLagMs = lag;
+            if (lag > maxLagMs) {
+                maxLagMs = lag;
+            }
+            if (lag >= STALL_THRESHOLD_MS) {
+                stallCount++;
+                totalStallMs += lag;
+                Log.w(TAG, "主线程卡顿 " + lag + "ms");
+            }
+            probePending = false;
+        }
+    };
+
+    /**
+     * @param executor 用于定期投递探针的后台调度线程
+     */
+    public MainLooperMonitor(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public synchronized void start() {
+        if (future != null) return;
+        future = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (probePending) return;
+                probePending = true;
+                postedAt = SystemClock.uptimeMillis();
+                mainHandler.post(probe);
+            }
+        }, PROBE_INTERVAL_MS, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    /**
+     * 获取主线程卡顿指标（用于状态上报）
+     */
+    public JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("lastLagMs", lastLagMs);
+            metrics.put("maxLagMs", maxLagMs);
+            metrics.put("stalls", stallCount);
+            metrics.put("stallMs", totalStallMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建主线程指标失败", e);
+        }
+        return metrics;
+    }
+}
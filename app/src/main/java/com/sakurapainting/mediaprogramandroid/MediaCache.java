@@ -0,0 +1,242 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 媒体文件磁盘缓存
+ * 下载目录中的完整文件按最近播放时间做LRU淘汰：总大小超过容量上限、
+ * 或所在存储的剩余空间低于保留值时，从最久未播放的文件开始删除。
+ * 最近播放时间记录在文件的修改时间上，进程重启后按它恢复淘汰顺序。
+ * 下载中的.part临时文件不属于缓存，不计入占用也不会被淘汰。
+ * 正在播放的文件由调用方显式pin/unpin，pin住的文件不会被淘汰；查找命中或下载完成（如后台预取）只更新最近使用时间。
+ */
+public class MediaCache {
+
+    private static final String TAG = "MediaCache";
+
+    private static final String PART_SUFFIX = ".part";
+
+    /**
+     * 文件被淘汰时回调（持有缓存锁，不要反过来调用缓存）
+     */
+    public interface EvictionListener {
+        void onEvicted(String name);
+    }
+
+    private final File directory;
+    private final long budgetBytes;
+    private final long minFreeBytes;
+
+    // 文件名 -> 大小，按访问顺序排列，最前面是最久未播放的
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded = false;
+    private long usedBytes = 0;
+    // 正在播放的文件，不能删除
+    private final Set<String> pinned = new HashSet<>();
+    private EvictionListener evictionListener;
+
+    // 指标
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long evictedBytes = 0;
+
+    public MediaCache(File directory, long budgetBytes, long minFreeBytes) {
+        this.directory = directory;
+        this.budgetBytes = Math.max(0, budgetBytes);
+        this.minFreeBytes = Math.max(0, minFreeBytes);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized void setEvictionListener(EvictionListener listener) {
+        this.evictionListener = listener;
+    }
+
+    /**
+     * 首次使用时扫描目录，按修改时间（即最近播放时间）从旧到新登记
+     */
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (!file.isFile() || file.getName().endsWith(PART_SUFFIX)) continue;
+            entries.put(file.getName(), file.length());
+            usedBytes += file.length();
+        }
+        Log.i(TAG, "缓存目录 " + directory + " 已有 " + entries.size() + " 个文件，共 " + usedBytes + " bytes");
+    }
+
+    /**
+     * 标记文件正在播放，播放结束前不会被淘汰
+     */
+    public synchronized void pin(String name) {
+        pinned.add(name);
+    }
+
+    /**
+     * 播放结束，文件恢复为可淘汰
+     */
+    public synchronized void unpin(String name) {
+        pinned.remove(name);
+    }
+
+    /**
+     * 查找缓存文件，命中时更新播放时间
+     * @param expectedSize 文件应有的大小，大小不符（写了一半或被改动）的文件视为未命中并删除
+     * @return 命中返回文件，未命中返回null
+     */
+    public synchronized File lookup(String name, long expectedSize) {
+        load();
+        File file = new File(directory, name);
+        if (entries.get(name) != null && file.isFile() && file.length() == expectedSize) {
+            hits++;
+            touch(name, file);
+            return file;
+        }
+        Long stale = entries.remove(name);
+        if (stale != null) {
+            // 文件在缓存之外被删除或改动
+            usedBytes -= stale;
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "删除缓存文件失败: " + file);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * 记录一次未命中（本地没有该内容的记录）
+     */
+    public synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * 下载前为即将写入的bytes字节腾出空间
+     * 淘汰到容量允许为止；全部可淘汰文件删完仍不够时照常下载，由写入失败来报告空间不足
+     */
+    public synchronized void reserve(long bytes) {
+        load();
+        trim(bytes);
+    }
+
+    /**
+     * 下载完成的文件加入缓存，视为最近使用（不代表正在播放）
+     */
+    public synchronized void put(String name) {
+        load();
+        File file = new File(directory, name);
+        Long previous = entries.put(name, file.length());
+        if (previous != null) {
+            usedBytes -= previous;
+        }
+        usedBytes += file.length();
+        touch(name, file);
+        trim(0);
+    }
+
+    /**
+     * 删除已失效的文件（例如内容已更新为新版本）
+     */
+    public synchronized void remove(String name) {
+        load();
+        Long size = entries.remove(name);
+        if (size != null) {
+            usedBytes -= size;
+        }
+        File file = new File(directory, name);
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "删除缓存文件失败: " + file);
+        }
+        pinned.remove(name);
+    }
+
+    private void touch(String name, File file) {
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            // 部分外部存储不允许修改时间，只影响重启后的淘汰顺序
+            Log.d(TAG, "无法更新播放时间: " + name);
+        }
+    }
+
+    /**
+     * 当前有效容量：配置的上限，且不能让存储剩余空间低于保留值
+     */
+    private long effectiveBudget() {
+        long free = DeviceStatusManager.getAvailableBytes(directory);
+        if (free < 0) return budgetBytes;
+        return Math.max(0, Math.min(budgetBytes, usedBytes + free - minFreeBytes));
+    }
+
+    /**
+     * 从最久未播放的文件开始删除，直到占用加上incoming不超过有效容量
+     */
+    private void trim(long incoming) {
+        long budget = effectiveBudget();
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (usedBytes + incoming > budget && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String name = entry.getKey();
+            if (pinned.contains(name)) continue;
+            File file = new File(directory, name);
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "删除缓存文件失败: " + file);
+                continue;
+            }
+            it.remove();
+            usedBytes -= entry.getValue();
+            evictions++;
+            evictedBytes += entry.getValue();
+            Log.i(TAG, "淘汰缓存文件: " + name + " (" + entry.getValue() + " bytes)");
+            if (evictionListener != null) {
+                evictionListener.onEvicted(name);
+            }
+        }
+        if (usedBytes + incoming > budget) {
+            Log.w(TAG, "缓存空间不足，占用 " + usedBytes + " bytes，需要 " + incoming + " bytes，容量 " + budget + " bytes");
+        }
+    }
+
+    /**
+     * 获取缓存指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("files", entries.size());
+            metrics.put("usedBytes", usedBytes);
+            metrics.put("budgetBytes", loaded ? effectiveBudget() : budgetBytes);
+            metrics.put("hits", hits);
+            metrics.put("misses", misses);
+            metrics.put("evictions", evictions);
+            metrics.put("evictedBytes", evictedBytes);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建缓存指标失败", e);
+        }
+        return metrics;
+    }
+}
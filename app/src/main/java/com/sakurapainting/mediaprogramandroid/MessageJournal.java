@@ -0,0 +1,407 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 出站消息日志
+ * 以追加方式记录未确认的QoS 1消息，ACK到达后追加确认记录，
+ * 进程被杀后重启时可取回未确认的消息重新发送。
+ * 每条记录写入后立即flush到系统，fsync按条数/时间批量执行；
+ * 写入停下来后由定时任务补一次fsync，未落盘的记录最多停留SYNC_INTERVAL_MS。
+ */
+public class MessageJournal {
+
+    private static final String TAG = "MessageJournal";
+
+    private static final byte RECORD_APPEND = 1;
+    private static final byte RECORD_ACK = 2;
+
+    // 累计多少条记录或多长时间执行一次fsync
+    private static final int SYNC_BATCH = 32;
+    private static final long SYNC_INTERVAL_MS = 1000;
+    // 日志记录数超过存活消息数的倍数时压缩
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final int COMPACT_RATIO = 4;
+    // 最多保留的未确认消息数
+    private static final int MAX_PENDING = 500;
+
+    /**
+     * 日志中的一条未确认消息
+     */
+    public static class Entry {
+        public final long id;
+        public final String topic;
+        public final byte[] payload;
+        public final int qos;
+
+        Entry(long id, String topic, byte[] payload, int qos) {
+            this.id = id;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+        }
+    }
+
+    private final File file;
+    private final LinkedHashMap<Long, Entry> pending = new LinkedHashMap<>();
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+    private final CRC32 crc = new CRC32();
+
+    private FileOutputStream fileStream;
+    private DataOutputStream out;
+    private long nextId = 1;
+    private int recordCount = 0;
+    private int unsyncedCount = 0;
+    private long lastSyncTime = 0;
+    private final ScheduledExecutorService syncExecutor;
+    private ScheduledFuture<?> pendingSync;
+
+    public MessageJournal(File file) {
+        this.file = file;
+        this.syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 打开日志并回放已有记录
+     */
+    public synchronized void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        long validLength = replay();
+        if (file.exists() && file.length() > validLength) {
+            // 截掉进程被杀时写了一半的尾部记录
+            Log.w(TAG, "日志尾部不完整，截断到 " + validLength + " 字节");
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        compact();
+        Log.i(TAG, "消息日志已打开，未确认消息: " + pending.size());
+    }
+
+    /**
+     * 顺序读取日志，重建未确认消息表
+     * @return 有效记录的字节长度
+     */
+    private long replay() throws IOException {
+        pending.clear();
+        recordCount = 0;
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                CRC32 check = new CRC32();
+                byte type = in.readByte();
+                long id = in.readLong();
+                int recordLength = 1 + 8;
+                check.update(type);
+                updateLong(check, id);
+
+                if (type == RECORD_APPEND) {
+                    int qos = in.readByte();
+                    byte[] topic = new byte[in.readUnsignedShort()];
+                    in.readFully(topic);
+                    int payloadLength = in.readInt();
+                    if (payloadLength < 0 || payloadLength > 16 * 1024 * 1024) {
+                        break;
+                    }
+                    byte[] payload = new byte[payloadLength];
+                    in.readFully(payload);
+                    if (in.readInt() != (int) crcOf(check, qos, topic, payload)) {
+                        break;
+                    }
+                    pending.put(id, new Entry(id, new String(topic, "UTF-8"), payload, qos));
+                    recordLength += 1 + 2 + topic.length + 4 + payload.length + 4;
+                } else if (type == RECORD_ACK) {
+                    if (in.readInt() != (int) check.getValue()) {
+                        break;
+                    }
+                    pending.remove(id);
+                    recordLength += 4;
+                } else {
+                    break;
+                }
+
+                nextId = Math.max(nextId, id + 1);
+                recordCount++;
+                validLength += recordLength;
+            }
+        } catch (EOFException e) {
+            // 读到文件末尾
+        } finally {
+            in.close();
+        }
+        return validLength;
+    }
+
+    private static long crcOf(CRC32 check, int qos, byte[] topic, byte[] payload) {
+        check.update(qos);
+        check.update(topic);
+        check.update(payload);
+        return check.getValue();
+    }
+
+    private static void updateLong(CRC32 check, long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            check.update((int) (value >>> i) & 0xFF);
+        }
+    }
+
+    private void openWriter() throws IOException {
+        if (out == null) {
+            fileStream = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(fileStream, 8192));
+        }
+    }
+
+    /**
+     * 记录一条待发送消息
+     * @return 日志ID，写入失败时返回-1
+     */
+    public synchronized long append(String topic, byte[] payload, int qos) {
+        long id = nextId++;
+        try {
+            byte[] topicBytes = topic.getBytes("UTF-8");
+            crc.reset();
+            crc.update(RECORD_APPEND);
+            updateLong(crc, id);
+
+            recordBuffer.reset();
+            DataOutputStream record = new DataOutputStream(recordBuffer);
+            record.writeByte(RECORD_APPEND);
+            record.writeLong(id);
+            record.writeByte(qos);
+            record.writeShort(topicBytes.length);
+            record.write(topicBytes);
+            record.writeInt(payload.length);
+            record.write(payload);
+            record.writeInt((int) crcOf(crc, qos, topicBytes, payload));
+            writeRecord();
+
+            pending.put(id, new Entry(id, topic, payload, qos));
+            trimPending();
+            return id;
+        } catch (IOException e) {
+            Log.e(TAG, "写入消息日志失败", e);
+            return -1;
+        }
+    }
+
+    /**
+     * 标记消息已被服务器确认
+     */
+    public synchronized void ack(long id) {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        writeAck(id);
+        if (recordCount >= COMPACT_MIN_RECORDS && recordCount > pending.size() * COMPACT_RATIO) {
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.e(TAG, "压缩消息日志失败", e);
+            }
+        }
+    }
+
+    private void writeAck(long id) {
+        try {
+            crc.reset();
+            crc.update(RECORD_ACK);
+            updateLong(crc, id);
+
+            recordBuffer.reset();
+            DataOutputStream record = new DataOutputStream(recordBuffer);
+            record.writeByte(RECORD_ACK);
+            record.writeLong(id);
+            record.writeInt((int) crc.getValue());
+            writeRecord();
+        } catch (IOException e) {
+            Log.e(TAG, "写入确认记录失败", e);
+        }
+    }
+
+    /**
+     * 写出一条记录：立即flush到系统（进程被杀也不会丢），按批执行fsync（防掉电）
+     */
+    private void writeRecord() throws IOException {
+        openWriter();
+        recordBuffer.writeTo(out);
+        out.flush();
+        recordCount++;
+        unsyncedCount++;
+
+        long now = System.currentTimeMillis();
+        if (unsyncedCount >= SYNC_BATCH || now - lastSyncTime >= SYNC_INTERVAL_MS) {
+            syncLocked();
+        } else if (pendingSync == null) {
+            // 之后没有新记录时，不能让这批记录一直停在页缓存里
+            pendingSync = syncExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    syncIfPending();
+                }
+            }, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 定时fsync（journal-sync线程）
+     */
+    private synchronized void syncIfPending() {
+        pendingSync = null;
+        if (unsyncedCount == 0) return;
+        try {
+            syncLocked();
+        } catch (IOException e) {
+            Log.e(TAG, "定时同步消息日志失败", e);
+        }
+    }
+
+    /**
+     * 强制把日志落盘，进程退出前调用
+     */
+    public synchronized void sync() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+            syncLocked();
+        } catch (IOException e) {
+            Log.e(TAG, "同步消息日志失败", e);
+        }
+    }
+
+    private void syncLocked() throws IOException {
+        if (fileStream != null && unsyncedCount > 0) {
+            fileStream.getFD().sync();
+        }
+        unsyncedCount = 0;
+        lastSyncTime = System.currentTimeMillis();
+        if (pendingSync != null) {
+            pendingSync.cancel(false);
+            pendingSync = null;
+        }
+    }
+
+    /**
+     * 超出上限时丢弃最旧的未确认消息
+     */
+    private void trimPending() {
+        Iterator<Long> it = pending.keySet().iterator();
+        while (pending.size() > MAX_PENDING && it.hasNext()) {
+            Long id = it.next();
+            it.remove();
+            writeAck(id);
+            Log.w(TAG, "未确认消息过多，丢弃日志记录: " + id);
+        }
+    }
+
+    /**
+     * 压缩日志：只保留未确认的消息，写临时文件后原子替换
+     */
+    private void compact() throws IOException {
+        closeWriter();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream tmpStream = new FileOutputStream(tmp);
+        DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(tmpStream, 8192));
+        try {
+            for (Entry entry : pending.values()) {
+                byte[] topicBytes = entry.topic.getBytes("UTF-8");
+                CRC32 check = new CRC32();
+                check.update(RECORD_APPEND);
+                updateLong(check, entry.id);
+                tmpOut.writeByte(RECORD_APPEND);
+                tmpOut.writeLong(entry.id);
+                tmpOut.writeByte(entry.qos);
+                tmpOut.writeShort(topicBytes.length);
+                tmpOut.write(topicBytes);
+                tmpOut.writeInt(entry.payload.length);
+                tmpOut.write(entry.payload);
+                tmpOut.writeInt((int) crcOf(check, entry.qos, topicBytes, entry.payload));
+            }
+            tmpOut.flush();
+            tmpStream.getFD().sync();
+        } finally {
+            tmpOut.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new IOException("替换日志文件失败: " + file.getPath());
+        }
+        recordCount = pending.size();
+        unsyncedCount = 0;
+        Log.d(TAG, "消息日志已压缩，保留 " + recordCount + " 条");
+    }
+
+    /**
+     * 获取全部未确认消息（按写入顺序）
+     */
+    public synchronized List<Entry> pending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void closeWriter() throws IOException {
+        if (out != null) {
+            out.flush();
+            syncLocked();
+            out.close();
+            out = null;
+            fileStream = null;
+        }
+    }
+
+    /**
+     * 关闭日志
+     */
+    public synchronized void close() {
+        try {
+            closeWriter();
+        } catch (IOException e) {
+            Log.e(TAG, "关闭消息日志失败", e);
+        }
+    }
+}
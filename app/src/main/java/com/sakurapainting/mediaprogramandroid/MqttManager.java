@@ -5,19 +5,40 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
 /**
  * MQTT连接管理器
  * 负责与云平台的MQTT通信
@@ -32,16 +53,89 @@ public class MqttManager {
     private static final String TOPIC_STATUS = "device/status";
     private static final String TOPIC_DATA = "device/data";
     private static final String TOPIC_CONTENT_RESPONSE = "device/content_response";
+    private static final String TOPIC_HEARTBEAT_BATCH = "device/heartbeat_batch";
     private static final String TOPIC_CONTENT = "device/%s/content";
     private static final String TOPIC_COMMANDS = "device/%s/commands";
+    // 链路探测回显：设备发布并订阅同一主题，代理转发回来即一次往返
+    private static final String TOPIC_ECHO = "device/%s/echo";
     private static final String TOPIC_BROADCAST = "broadcast/all";
+    // 出站消息日志文件（应用私有目录）
+    private static final String JOURNAL_DIR = "mqtt";
+    private static final String JOURNAL_FILE = "outbound.journal";
+    // 多个代理时的TCP探测超时
+    private static final long BROKER_PROBE_TIMEOUT_MS = 2000;
+    // 入站消息处理线程数、收件箱容量、收件箱满时回调线程等待多久后记录一次阻塞
+    private static final int INBOUND_WORKERS = 2;
+    private static final int INBOUND_CAPACITY = 64;
+    private static final long INBOUND_OFFER_TIMEOUT_MS = 500;
+    private static final int DEDUP_MAX_ENTRIES = 256;
+    private static final long DEDUP_WINDOW_MS = 10 * 60 * 1000;
+    // 注册信息未变化时最长只发指纹多久，到期后仍完整注册一次
+    private static final long REGISTER_REFRESH_MS = 24 * 60 * 60 * 1000L;
+    // 重启前等待发布队列发完的最长时间
+    private static final long RESTART_DRAIN_MS = 3000;
+    // 离线心跳缓冲：12小时（30秒间隔）x 2KB，每2秒上传一批20条
+    private static final String TELEMETRY_DIR = "telemetry";
+    private static final String TELEMETRY_FILE = "heartbeat.ring";
+    private static final int TELEMETRY_CAPACITY = 1440;
+    private static final int TELEMETRY_SLOT_SIZE = 2048;
+    private static final int TELEMETRY_BATCH_SIZE = 20;
+    private static final long TELEMETRY_BATCH_INTERVAL_MS = 2000;
     private Context context;
-    private MqttClient mqttClient;
+    private MqttAsyncClient mqttClient;
+    private MqttPublisher publisher;
+    private MessageJournal journal;
+    private InboundDispatcher inboundDispatcher;
+    private TelemetryUploader telemetryUploader;
+    private HeartbeatDeltaEncoder heartbeatEncoder;
+    // 心跳、状态、内容响应可协商为二进制编码，其余主题固定JSON
+    private final PayloadCodecs payloadCodecs = new PayloadCodecs(TOPIC_HEARTBEAT, TOPIC_STATUS,
+            TOPIC_CONTENT_RESPONSE);
+    private TopicRouter topicRouter;
+    private ConnectionOrchestrator orchestrator;
+    private final BrokerSelector brokerSelector = new BrokerSelector(BROKER_PROBE_TIMEOUT_MS);
+    private NetworkMonitor networkMonitor;
+    private final HashMap<String, CommandHandler> commandHandlers = new HashMap<>();
+    // QoS 1重复投递的内容推送和命令在处理前丢弃
+    private final DedupCache inboundDedup = new DedupCache(DEDUP_MAX_ENTRIES, DEDUP_WINDOW_MS);
+    // 入站消息对象按工作线程复用，避免每条消息分配
+    private final ThreadLocal<ContentPushMessage> contentMessages = new ThreadLocal<ContentPushMessage>() {
+        @Override
+        protected ContentPushMessage initialValue() {
+            return new ContentPushMessage();
+        }
+    };
+    private final ThreadLocal<CommandMessage> commandMessages = new ThreadLocal<CommandMessage>() {
+        @Override
+        protected CommandMessage initialValue() {
+            return new CommandMessage();
+        }
+    };
     private String deviceId;
     private String clientId;
-    private boolean isConnected = false;
-    private Handler heartbeatHandler;
-    private Runnable heartbeatRunnable;
+    private volatile boolean isConnected = false;
+    // 每次连接成功递增，延迟执行的上线任务据此判断连接是否已更换
+    private volatile int connectGeneration = 0;
+    private final Random random = new Random();
+    // 会话恢复指标
+    private boolean clientPersistentSession = false;
+    private volatile long connectedAt = 0;
+    private volatile boolean awaitingFirstContent = false;
+    private volatile boolean lastSessionPresent = false;
+    private volatile long lastResumeMs = -1;
+    private volatile long lastTimeToFirstContentMs = -1;
+    private volatile long subscribesSkipped = 0;
+    // 完整注册内容及其指纹，设备规格对象变化时重建
+    private final Object registerLock = new Object();
+    private JSONObject cachedRegisterData;
+    private JSONObject cachedRegisterSpecs;
+    private String cachedRegisterFingerprint;
+    private ScheduledExecutorService heartbeatExecutor;
+    private HeartbeatScheduler heartbeatScheduler;
+    private AdaptiveHeartbeatPolicy heartbeatPolicy;
+    private MainLooperMonitor mainLooperMonitor;
+    private final LinkQualityMonitor linkMonitor = new LinkQualityMonitor();
+    private String echoTopic;
     private DeviceStatusManager statusManager;
     private ContentManager contentManager;
 
@@ -56,12 +150,55 @@ public class MqttManager {
             this.statusManager = new DeviceStatusManager(context);
             Log.i(TAG, "DeviceStatusManager创建成功");
             Log.i(TAG, "步骤3: 创建ContentManager");
-            this.contentManager = new ContentManager(context);
+            this.networkMonitor = new NetworkMonitor(context);
+            this.contentManager = new ContentManager(context, networkMonitor);
             Log.i(TAG, "ContentManager创建成功");
             Log.i(TAG, "步骤4: 初始化设备信息");
             initializeDevice();
+            echoTopic = String.format(TOPIC_ECHO, clientId);
             Log.i(TAG, "设备信息初始化成功");
-            Log.i(TAG, "步骤5: 设置心跳");
+            Log.i(TAG, "步骤5: 创建发布管道");
+            this.publisher = new MqttPublisher(configManager.getPublishQueueCapacity(),
+                    configManager.getMaxInflight());
+            configurePublishLanes();
+            publisher.setAckListener(new MqttPublisher.AckListener() {
+                @Override
+                public void onAck(String topic, long latencyMs) {
+                    linkMonitor.onPublishAck(latencyMs);
+                }
+            });
+            // 持久消息以JSON写入日志，发送时才按协商结果编码
+            publisher.setDurableEncoder(new MqttPublisher.PayloadEncoder() {
+                @Override
+                public byte[] encode(String topic, byte[] payload) throws IOException {
+                    return payloadCodecs.transcode(topic, payload);
+                }
+            });
+            openJournal();
+            openTelemetryBuffer();
+            publisher.start();
+            Log.i(TAG, "发布管道创建成功");
+            this.inboundDispatcher = new InboundDispatcher(INBOUND_WORKERS, INBOUND_CAPACITY,
+                    INBOUND_OFFER_TIMEOUT_MS);
+            registerHandlers();
+            this.orchestrator = new ConnectionOrchestrator(new ConnectionOrchestrator.Connector() {
+                @Override
+                public void connectOnce() throws Exception {
+                    MqttManager.this.connectOnce();
+                }
+
+                @Override
+                public void abort() {
+                    abortClient();
+                }
+            }, configManager.getReconnectDelay() * 1000L, configManager.getReconnectMaxDelay() * 1000L);
+            orchestrator.setReconnectSpread(configManager.getReconnectSpread() * 1000L);
+            orchestrator.setConnectRateLimit(configManager.getConnectBurst(), configManager.getConnectRefill() * 1000L);
+            registerNetworkListener();
+            if (ConfigManager.HEARTBEAT_MODE_DELTA.equals(configManager.getHeartbeatMode())) {
+                this.heartbeatEncoder = new HeartbeatDeltaEncoder(configManager.getHeartbeatKeyframeInterval());
+            }
+            Log.i(TAG, "步骤6: 设置心跳");
             setupHeartbeat();
             Log.i(TAG, "心跳设置成功");
             Log.i(TAG, "MqttManager构造函数完成");
@@ -115,144 +252,283 @@ public class MqttManager {
     }
 
     /**
-     * 连接到MQTT服务器
+     * 打开出站消息日志 - 仅在文件持久化模式下启用
+     */
+    private void openJournal() {
+        if (!ConfigManager.PERSISTENCE_FILE.equals(configManager.getPersistenceMode())) {
+            Log.i(TAG, "使用内存持久化模式，未确认消息不会跨进程保留");
+            return;
+        }
+        File file = new File(new File(context.getFilesDir(), JOURNAL_DIR), JOURNAL_FILE);
+        MessageJournal opened = new MessageJournal(file);
+        try {
+            opened.open();
+            journal = opened;
+            publisher.setJournal(journal);
+            Log.i(TAG, "出站消息日志已启用: " + file.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "打开出站消息日志失败，退回内存模式", e);
+        }
+    }
+
+    /**
+     * 打开离线心跳缓冲区
+     */
+    private void openTelemetryBuffer() {
+        File file = new File(new File(context.getFilesDir(), TELEMETRY_DIR), TELEMETRY_FILE);
+        TelemetryRingBuffer buffer = new TelemetryRingBuffer(file, TELEMETRY_CAPACITY, TELEMETRY_SLOT_SIZE);
+        try {
+            buffer.open();
+            telemetryUploader = new TelemetryUploader(buffer, publisher, TOPIC_HEARTBEAT_BATCH,
+                    deviceId, clientId, TELEMETRY_BATCH_SIZE, TELEMETRY_BATCH_INTERVAL_MS);
+        } catch (IOException e) {
+            Log.e(TAG, "打开离线心跳缓冲区失败，离线期间心跳将丢失", e);
+        }
+    }
+
+    /**
+     * 连接到MQTT服务器 - 交给连接编排器执行，重复调用不会产生多个连接
      */
     public void connect() {
         if (mqttClient != null && mqttClient.isConnected()) {
-            Log.w(TAG, "MQTT already connected, checking real status...");
+            Log.w(TAG, "MQTT already connected");
+            return;
+        }
+        if (!isNetworkAvailable()) {
+            Log.w(TAG, "Network not available，网络恢复后自动连接");
+        }
+        // disconnect后再次连接时重新登记网络监听（重复调用忽略）
+        networkMonitor.start(this);
+        orchestrator.start();
+    }
+
+    /**
+     * 执行一次连接尝试 - 在连接编排器线程上阻塞执行，失败时抛出异常
+     * 配置了多个代理时按探测延迟依次尝试可达的代理，全部失败才算本次尝试失败
+     */
+    private void connectOnce() throws Exception {
+        if (!isNetworkAvailable()) {
+            throw new IOException("Network not available");
+        }
+        brokerSelector.setBrokers(configManager.getMqttUrls());
+        List<String> candidates = brokerSelector.candidates();
+        if (candidates.isEmpty()) {
+            throw new IOException("No reachable MQTT broker");
+        }
+        MqttException lastError = null;
+        for (String mqttUrl : candidates) {
             try {
-                Log.i(TAG, "验证现有连接状态...");
+                connectTo(mqttUrl);
+                brokerSelector.onConnected(mqttUrl);
                 return;
-            } catch (Exception e) {
-                Log.w(TAG, "现有连接无效，将重新连接: " + e.getMessage());
-                try {
-                    mqttClient.disconnect();
-                    mqttClient.close();
-                } catch (Exception ex) {
-                    Log.w(TAG, "清理连接时异常: " + ex.getMessage());
-                }
-                mqttClient = null;
-                isConnected = false;
+            } catch (MqttException e) {
+                brokerSelector.onConnectFailed(mqttUrl);
+                lastError = e;
             }
         }
-        if (!isNetworkAvailable()) {
-            Log.w(TAG, "Network not available");
-            return;
-        }
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    String mqttUrl = configManager.getMqttUrl();
-                    Log.i(TAG, "=== 开始MQTT连接流程 ===");
-                    Log.i(TAG, "MQTT URL: " + mqttUrl);
-                    Log.i(TAG, "客户端ID: " + clientId);
-                    Log.i(TAG, "设备ID: " + deviceId);
-                    MemoryPersistence persistence = new MemoryPersistence();
-                    mqttClient = new MqttClient(mqttUrl, clientId, persistence);
-                    mqttClient.setCallback(new MqttCallbackHandler());
-                    Log.i(TAG, "MqttClient 创建成功，开始连接...");
-                    MqttConnectOptions options = new MqttConnectOptions();
-                    options.setAutomaticReconnect(true);
-                    options.setCleanSession(true);
-                    options.setConnectionTimeout(10);
-                    options.setKeepAliveInterval(30);
-                    mqttClient.connect(options);
-                    Log.i(TAG, "🎉 MQTT连接成功！");
-                    Log.i(TAG, "服务器地址: " + configManager.getMqttUrl());
-                    Log.i(TAG, "设备ID: " + deviceId);
-                    Log.i(TAG, "客户端ID: " + clientId);
-                    Log.i(TAG, "isConnected标志已设置为: " + isConnected);
-                    isConnected = true;
-                    subscribeToTopics();
-                    registerDevice();
-                    startHeartbeat();
-                    updateStatus("online");
-                } catch (MqttException e) {
-                    Log.e(TAG, "❌ MQTT连接失败");
-                    Log.e(TAG, "服务器地址: " + configManager.getMqttUrl());
-                    Log.e(TAG, "MQTT异常代码: " + e.getReasonCode());
-                    Log.e(TAG, "MQTT异常消息: " + e.getMessage());
-                    e.printStackTrace();
-                    isConnected = false;
-                    int delay = configManager.getReconnectDelay() * 1000;
-                    Log.i(TAG, "将在 " + delay + "ms 后重试连接");
-                    new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            connect();
-                        }
-                    }, delay);
-                } catch (Exception e) {
-                    Log.e(TAG, "❌ 其他异常: " + e.getMessage());
-                    e.printStackTrace();
-                    isConnected = false;
-                }
+        throw lastError;
+    }
+
+    /**
+     * 连接到指定代理
+     */
+    private void connectTo(String mqttUrl) throws MqttException {
+        Log.i(TAG, "=== 开始MQTT连接流程 ===");
+        Log.i(TAG, "MQTT URL: " + mqttUrl);
+        Log.i(TAG, "客户端ID: " + clientId);
+        Log.i(TAG, "设备ID: " + deviceId);
+        boolean persistentSession = ConfigManager.SESSION_PERSISTENT.equals(configManager.getSessionMode());
+        long attemptStart = SystemClock.elapsedRealtime();
+        try {
+            if (mqttClient == null || !mqttUrl.equals(mqttClient.getServerURI())
+                    || persistentSession != clientPersistentSession) {
+                closeClient();
+                // 持久会话只需要固定的clientId：断线期间的入站QoS 1消息由代理保留补发。
+                // Paho的存储只放内存，跨进程的出站补发只由出站日志负责，
+                // 否则重启后Paho从文件补发的消息会被日志再发一遍
+                mqttClient = new MqttAsyncClient(mqttUrl, clientId, new MemoryPersistence());
+                clientPersistentSession = persistentSession;
+                mqttClient.setCallback(new MqttCallbackHandler());
+                publisher.setClient(mqttClient);
+                Log.i(TAG, "MqttAsyncClient 创建成功");
+            }
+            Log.i(TAG, "开始连接...");
+            MqttConnectOptions options = new MqttConnectOptions();
+            // 重连由ConnectionOrchestrator统一负责，关闭Paho自带的自动重连
+            options.setAutomaticReconnect(false);
+            options.setCleanSession(!persistentSession);
+            options.setConnectionTimeout(10);
+            // keepalive有固定上限：心跳间隔较短时由心跳保持连接活跃，拉长后由PINGREQ及时发现半开连接
+            options.setKeepAliveInterval(heartbeatPolicy.keepAliveSeconds());
+            options.setMaxInflight(configManager.getMaxInflight());
+            if (mqttUrl.startsWith("ssl://")) {
+                configureTls(options);
+            }
+            IMqttToken connectToken = mqttClient.connect(options);
+            connectToken.waitForCompletion();
+            boolean sessionPresent = persistentSession && connectToken.getSessionPresent();
+            linkMonitor.onConnected();
+            networkMonitor.onReconnected();
+            publisher.replayJournal();
+            publisher.onConnectionChanged();
+            // 连接可能刚建立就丢失：Paho先把客户端置为断开再回调connectionLost，
+            // 按客户端的实际状态设置，不会覆盖onDisconnected已写入的false
+            isConnected = mqttClient.isConnected();
+            Log.i(TAG, "🎉 MQTT连接成功！");
+            Log.i(TAG, "服务器地址: " + mqttUrl);
+            Log.i(TAG, "设备ID: " + deviceId);
+            Log.i(TAG, "客户端ID: " + clientId);
+            if (sessionPresent) {
+                // 代理保留了会话，订阅仍然有效，断线期间的推送会直接补发；
+                // 回显主题仍单独订阅（幂等、开销很小），会话早于回显功能建立时也能测到链路质量
+                subscribesSkipped++;
+                Log.i(TAG, "恢复持久会话，跳过订阅");
+                subscribeEchoTopic();
+            } else {
+                subscribeToTopics();
+            }
+            lastSessionPresent = sessionPresent;
+            lastResumeMs = SystemClock.elapsedRealtime() - attemptStart;
+            connectedAt = SystemClock.elapsedRealtime();
+            awaitingFirstContent = true;
+            payloadCodecs.reset();
+            if (heartbeatEncoder != null) {
+                heartbeatEncoder.requestKeyframe();
             }
-        }).start();
+            announceOnline();
+            if (telemetryUploader != null) {
+                telemetryUploader.startFlush();
+            }
+            if (!mqttClient.isConnected()) {
+                // 连接后的初始化期间连接已丢失，本次尝试按失败处理，由编排器重试
+                throw new MqttException(MqttException.REASON_CODE_CONNECTION_LOST);
+            }
+        } catch (MqttException e) {
+            Log.e(TAG, "❌ MQTT连接失败");
+            Log.e(TAG, "服务器地址: " + mqttUrl);
+            Log.e(TAG, "MQTT异常代码: " + e.getReasonCode());
+            Log.e(TAG, "MQTT异常消息: " + e.getMessage());
+            isConnected = false;
+            // 订阅失败时连接可能仍然存在，丢弃它，下次尝试重新建立
+            abortClient();
+            throw e;
+        }
     }
 
     /**
-     * 订阅相关主题
+     * ssl://连接使用共享的TLS上下文，重连时恢复会话而不是完整握手
      */
-    private void subscribeToTopics() {
+    private void configureTls(MqttConnectOptions options) throws MqttException {
         try {
-            // 订阅内容推送主题
-            String contentTopic = String.format(TOPIC_CONTENT, clientId);
-            mqttClient.subscribe(contentTopic, 1);
-            Log.i(TAG, "订阅主题: " + contentTopic);
+            options.setSocketFactory(TlsTransport.getDefault().getSocketFactory());
+        } catch (GeneralSecurityException e) {
+            throw new MqttException(MqttException.REASON_CODE_SSL_CONFIG_ERROR, e);
+        }
+        // Paho通过SSLParameters校验主机名需要API 24，改为握手后用系统HostnameVerifier校验
+        options.setHttpsHostnameVerificationEnabled(false);
+        options.setSSLHostnameVerifier(HttpsURLConnection.getDefaultHostnameVerifier());
+    }
 
-            // 订阅命令主题
-            String commandTopic = String.format(TOPIC_COMMANDS, clientId);
-            mqttClient.subscribe(commandTopic, 1);
-            Log.i(TAG, "订阅主题: " + commandTopic);
+    /**
+     * 关闭旧的客户端实例（服务器地址变化时）
+     */
+    private void closeClient() {
+        if (mqttClient == null) return;
+        try {
+            if (mqttClient.isConnected()) {
+                mqttClient.disconnectForcibly(1000);
+            }
+            mqttClient.close();
+        } catch (MqttException e) {
+            Log.w(TAG, "关闭旧客户端时异常: " + e.getMessage());
+        }
+        mqttClient = null;
+    }
 
-            // 订阅广播主题
-            mqttClient.subscribe(TOPIC_BROADCAST, 1);
-            Log.i(TAG, "订阅主题: " + TOPIC_BROADCAST);
+    /**
+     * 订阅相关主题
+     */
+    private void subscribeToTopics() throws MqttException {
+        // 内容推送、命令、广播、链路回显主题一次订阅；失败时本次连接尝试失败，收不到推送的连接没有意义
+        String contentTopic = String.format(TOPIC_CONTENT, clientId);
+        String commandTopic = String.format(TOPIC_COMMANDS, clientId);
+        String[] topics = {contentTopic, commandTopic, TOPIC_BROADCAST, echoTopic};
+        int[] qos = {1, 1, 1, 0};
+        mqttClient.subscribe(topics, qos).waitForCompletion();
+        for (String topic : topics) {
+            Log.i(TAG, "订阅主题: " + topic);
+        }
+    }
 
+    /**
+     * 只订阅链路回显主题
+     */
+    private void subscribeEchoTopic() {
+        try {
+            mqttClient.subscribe(echoTopic, 0).waitForCompletion();
+            Log.i(TAG, "订阅主题: " + echoTopic);
         } catch (MqttException e) {
-            Log.e(TAG, "订阅主题失败", e);
+            Log.e(TAG, "订阅回显主题失败", e);
         }
     }
 
     /**
-     * 注册设备
+     * 发送设备注册
+     * 注册内容与上次服务器确认的指纹一致时只发送指纹（register_lite），
+     * 内容变化、超过刷新周期、force为true（服务端请求）时发送完整注册信息
      */
-    private void registerDevice() {
+    private void registerDevice(boolean force) {
         try {
+            final String fingerprint;
+            JSONObject registerData;
+            synchronized (registerLock) {
+                JSONObject specs = statusManager.getCachedSpecifications();
+                if (cachedRegisterData == null || specs != cachedRegisterSpecs) {
+                    cachedRegisterData = buildRegisterData(specs);
+                    cachedRegisterSpecs = specs;
+                    cachedRegisterFingerprint = fingerprint(cachedRegisterData.toString());
+                }
+                registerData = cachedRegisterData;
+                fingerprint = cachedRegisterFingerprint;
+            }
+
+            boolean lite = !force && configManager.isRegisterLiteEnabled()
+                    && fingerprint.equals(configManager.getRegisterFingerprint())
+                    && System.currentTimeMillis() - configManager.getRegisterTime() < REGISTER_REFRESH_MS;
+
             JSONObject message = new JSONObject();
-            message.put("type", "register");
+            message.put("type", lite ? "register_lite" : "register");
             message.put("deviceId", deviceId);
             message.put("clientId", clientId);
             message.put("timestamp", System.currentTimeMillis());
 
-            JSONObject data = new JSONObject();
-            data.put("deviceId", deviceId);
-            data.put("name", "安卓屏幕终端_" + deviceId.substring("android_".length()));
-            data.put("type", "android_screen");
-
-            // 位置信息
-            JSONObject location = new JSONObject();
-            location.put("name", "移动显示终端");
-            location.put("address", "位置待设定");
-            JSONObject coordinates = new JSONObject();
-            coordinates.put("latitude", 0.0);
-            coordinates.put("longitude", 0.0);
-            location.put("coordinates", coordinates);
-            data.put("location", location);
-
-            // 设备规格
-            JSONObject specs = statusManager.getDeviceSpecifications();
-            data.put("specifications", specs);
-
-            data.put("version", "1.0.0");
-            data.put("capabilities", new String[]{"display", "audio", "touch"});
+            if (lite) {
+                JSONObject data = new JSONObject();
+                data.put("deviceId", deviceId);
+                data.put("fingerprint", fingerprint);
+                message.put("data", data);
+                publishMessage(TOPIC_REGISTER, message, null);
+                Log.i(TAG, "注册信息未变化，发送注册指纹: " + fingerprint);
+                return;
+            }
 
+            // 缓存的注册内容不修改，复制一份再附加指纹
+            JSONObject data = new JSONObject(registerData.toString());
+            data.put("fingerprint", fingerprint);
             message.put("data", data);
 
-            publishMessage(TOPIC_REGISTER, message.toString());
-            Log.i(TAG, "设备注册消息已发送");
+            publishMessage(TOPIC_REGISTER, message, new MqttPublisher.PublishCallback() {
+                @Override
+                public void onSuccess(String topic) {
+                    configManager.setRegisterFingerprint(fingerprint, System.currentTimeMillis());
+                }
+
+                @Override
+                public void onFailure(String topic, String error) {
+                    Log.w(TAG, "注册消息发送失败: " + error);
+                }
+            });
+            Log.i(TAG, "设备注册消息已提交");
 
         } catch (JSONException e) {
             Log.e(TAG, "创建注册消息失败", e);
@@ -260,10 +536,91 @@ public class MqttManager {
     }
 
     /**
-     * 发送心跳消息
+     * 构建完整注册内容（不含时间戳等易变字段，指纹据此计算）
+     */
+    private JSONObject buildRegisterData(JSONObject specs) throws JSONException {
+        JSONObject data = new JSONObject();
+        data.put("deviceId", deviceId);
+        data.put("name", "安卓屏幕终端_" + deviceId.substring("android_".length()));
+        data.put("type", "android_screen");
+
+        // 位置信息
+        JSONObject location = new JSONObject();
+        location.put("name", "移动显示终端");
+        location.put("address", "位置待设定");
+        JSONObject coordinates = new JSONObject();
+        coordinates.put("latitude", 0.0);
+        coordinates.put("longitude", 0.0);
+        location.put("coordinates", coordinates);
+        data.put("location", location);
+
+        // 设备规格
+        data.put("specifications", specs);
+
+        data.put("version", "1.0.0");
+        JSONArray capabilities = new JSONArray();
+        capabilities.put("display");
+        capabilities.put("audio");
+        capabilities.put("touch");
+        capabilities.put("register_lite");
+        if (heartbeatEncoder != null) {
+            // 支持增量心跳（关键帧 + 字段级增量，带序号）
+            capabilities.put("heartbeat_delta");
+        }
+        data.put("capabilities", capabilities);
+        // 支持的载荷编码，服务端通过set_codec命令按主题启用
+        data.put("codecs", payloadCodecs.getSupportedNames());
+        return data;
+    }
+
+    /**
+     * 计算注册内容的SHA-1指纹（十六进制）
+     */
+    private static String fingerprint(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(content.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                hex.append(String.format(Locale.US, "%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // 所有Android版本都提供SHA-1，这里只作兜底：返回内容本身的哈希
+            return Integer.toHexString(content.hashCode());
+        }
+    }
+
+    /**
+     * 连接成功后的注册、上线状态和首个心跳各自在随机相位偏移后发出，
+     * 避免服务器重启后所有终端在同一秒内发送相同的消息
+     */
+    private void announceOnline() {
+        final int generation = ++connectGeneration;
+        long windowMs = configManager.getStartupJitter() * 1000L;
+
+        long announceDelay = (long) (random.nextDouble() * windowMs);
+        heartbeatExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!isConnected || generation != connectGeneration) {
+                    return;
+                }
+                registerDevice(false);
+                updateStatus("online", null);
+            }
+        }, announceDelay, TimeUnit.MILLISECONDS);
+
+        long heartbeatDelay = (long) (random.nextDouble() * windowMs);
+        startHeartbeat(heartbeatDelay);
+        Log.i(TAG, "上线消息将在 " + announceDelay + "ms 后发送，首个心跳 " + heartbeatDelay + "ms");
+    }
+
+    /**
+     * 发送心跳消息 - 离线时写入环形缓冲区，重连后批量补传
      */
-    private void sendHeartbeat() {
-        if (!isConnected) return;
+    private void sendHeartbeat(MqttPublisher.PublishCallback callback) {
+        if (!isConnected && telemetryUploader == null) return;
 
         try {
             JSONObject message = new JSONObject();
@@ -273,20 +630,98 @@ public class MqttManager {
             message.put("timestamp", System.currentTimeMillis());
 
             JSONObject data = statusManager.getSystemStatus();
-            message.put("data", data);
+            JSONObject inbound = inboundDispatcher.getMetrics();
+            inbound.put("duplicates", inboundDedup.getDuplicateCount());
+            data.put("inbound", inbound);
+            data.put("outbound", publisher.getMetrics());
+            JSONObject heartbeat = heartbeatScheduler.getMetrics();
+            heartbeat.put("policy", heartbeatPolicy.getMetrics());
+            data.put("heartbeat", heartbeat);
+            data.put("mainThread", mainLooperMonitor.getMetrics());
+            data.put("session", getSessionMetrics());
+            data.put("link", linkMonitor.getMetrics());
+            data.put("cache", contentManager.getCacheMetrics());
+            data.put("downloads", DownloadScheduler.getDefault().getMetrics());
+            JSONObject tls = TlsTransport.getDefaultMetrics();
+            if (tls != null) {
+                data.put("tls", tls);
+            }
+
+            if (!isConnected) {
+                // 离线缓存始终保存完整快照
+                message.put("data", data);
+                telemetryUploader.record(message.toString().getBytes());
+                return;
+            }
 
-            publishMessage(TOPIC_HEARTBEAT, message.toString());
-            Log.d(TAG, "心跳消息已发送");
+            callback = measureHeartbeat(callback);
+            if (heartbeatEncoder != null) {
+                heartbeatEncoder.encode(message, data);
+                callback = keyframeOnFailure(callback);
+            } else {
+                message.put("data", data);
+            }
+
+            publishMessage(TOPIC_HEARTBEAT, message, callback);
+            Log.d(TAG, "心跳消息已提交");
 
         } catch (JSONException e) {
             Log.e(TAG, "创建心跳消息失败", e);
         }
     }
 
+    /**
+     * 记录心跳从入队到ACK的往返时间，作为自适应心跳的链路质量输入
+     */
+    private MqttPublisher.PublishCallback measureHeartbeat(final MqttPublisher.PublishCallback callback) {
+        final long startTime = SystemClock.elapsedRealtime();
+        return new MqttPublisher.PublishCallback() {
+            @Override
+            public void onSuccess(String topic) {
+                heartbeatPolicy.onPublishRtt(SystemClock.elapsedRealtime() - startTime);
+                retuneHeartbeat();
+                if (callback != null) {
+                    callback.onSuccess(topic);
+                }
+            }
+
+            @Override
+            public void onFailure(String topic, String error) {
+                heartbeatPolicy.onPublishFailed();
+                retuneHeartbeat();
+                if (callback != null) {
+                    callback.onFailure(topic, error);
+                }
+            }
+        };
+    }
+
+    /**
+     * 增量心跳发送失败时，下一条改发关键帧，服务端据此重建完整状态
+     */
+    private MqttPublisher.PublishCallback keyframeOnFailure(final MqttPublisher.PublishCallback callback) {
+        return new MqttPublisher.PublishCallback() {
+            @Override
+            public void onSuccess(String topic) {
+                if (callback != null) {
+                    callback.onSuccess(topic);
+                }
+            }
+
+            @Override
+            public void onFailure(String topic, String error) {
+                heartbeatEncoder.requestKeyframe();
+                if (callback != null) {
+                    callback.onFailure(topic, error);
+                }
+            }
+        };
+    }
+
     /**
      * 更新设备状态
      */
-    private void updateStatus(String status) {
+    private void updateStatus(String status, MqttPublisher.PublishCallback callback) {
         try {
             JSONObject message = new JSONObject();
             message.put("type", "status");
@@ -297,10 +732,16 @@ public class MqttManager {
             JSONObject data = new JSONObject();
             data.put("status", status);
             data.put("deviceInfo", statusManager.getDeviceInfo());
+            data.put("connection", orchestrator.getMetrics());
+            data.put("broker", brokerSelector.getMetrics());
+            data.put("network", networkMonitor.getMetrics());
+            data.put("link", linkMonitor.getMetrics());
+            data.put("cache", contentManager.getCacheMetrics());
+            data.put("downloads", DownloadScheduler.getDefault().getMetrics());
             message.put("data", data);
 
-            publishMessage(TOPIC_STATUS, message.toString());
-            Log.i(TAG, "状态更新消息已发送: " + status);
+            publishDurableMessage(TOPIC_STATUS, message, callback);
+            Log.i(TAG, "状态更新消息已提交: " + status);
 
         } catch (JSONException e) {
             Log.e(TAG, "创建状态消息失败", e);
@@ -308,24 +749,78 @@ public class MqttManager {
     }
 
     /**
-     * 发布消息
+     * 按主题划分出站优先级：内容确认和注册走控制通道，状态走状态通道，心跳和离线批次走批量通道。
+     * 批量通道最多占用一半在途名额，重连后的心跳补传不会挤占确认消息
+     */
+    private void configurePublishLanes() {
+        int capacity = configManager.getPublishQueueCapacity();
+        int maxInflight = configManager.getMaxInflight();
+        // 确认消息不丢弃旧的；队满时拒绝新消息，持久消息仍保存在日志中
+        publisher.configureLane(MqttPublisher.Priority.CONTROL, capacity,
+                MqttPublisher.OverflowPolicy.DROP_NEWEST, maxInflight);
+        // 状态只关心最新的几条；留出四分之一的在途名额（至少一个）给控制消息，状态突发时确认消息不必排队
+        int controlReserved = Math.max(1, maxInflight / 4);
+        publisher.configureLane(MqttPublisher.Priority.STATUS, Math.max(10, capacity / 4),
+                MqttPublisher.OverflowPolicy.DROP_OLDEST, Math.max(1, maxInflight - controlReserved));
+        publisher.configureLane(MqttPublisher.Priority.BULK, capacity,
+                MqttPublisher.OverflowPolicy.DROP_OLDEST, Math.max(1, maxInflight / 2));
+
+        publisher.setTopicPriority(TOPIC_CONTENT_RESPONSE, MqttPublisher.Priority.CONTROL);
+        publisher.setTopicPriority(TOPIC_REGISTER, MqttPublisher.Priority.CONTROL);
+        publisher.setTopicPriority(TOPIC_STATUS, MqttPublisher.Priority.STATUS);
+        publisher.setTopicPriority(TOPIC_DATA, MqttPublisher.Priority.STATUS);
+        publisher.setTopicPriority(TOPIC_HEARTBEAT, MqttPublisher.Priority.BULK);
+        publisher.setTopicPriority(TOPIC_HEARTBEAT_BATCH, MqttPublisher.Priority.BULK);
+    }
+
+    /**
+     * 发布消息 - 放入发布队列后立即返回，结果通过callback通知
      */
-    private void publishMessage(String topic, String message) {
-        if (!isConnected || mqttClient == null) {
+    private void publishMessage(String topic, JSONObject message, MqttPublisher.PublishCallback callback) {
+        if (mqttClient == null) {
             Log.w(TAG, "MQTT未连接，无法发送消息");
+            if (callback != null) {
+                callback.onFailure(topic, "MQTT未连接");
+            }
             return;
         }
 
-        try {
-            MqttMessage mqttMessage = new MqttMessage(message.getBytes());
-            mqttMessage.setQos(1);
-            mqttMessage.setRetained(false);
+        byte[] payload = encodePayload(topic, message, callback);
+        if (payload == null) return;
+        publisher.publish(topic, payload, 1, callback);
+        Log.d(TAG, "消息已入队 " + topic + ": " + payload.length + " 字节");
+    }
 
-            mqttClient.publish(topic, mqttMessage);
-            Log.d(TAG, "消息已发布到 " + topic + ": " + message);
+    /**
+     * 发布持久消息 - 服务器确认前保存在出站日志中，断线或进程重启后会重发
+     */
+    private void publishDurableMessage(String topic, JSONObject message, MqttPublisher.PublishCallback callback) {
+        byte[] payload;
+        try {
+            payload = payloadCodecs.encodeJson(message);
+        } catch (IOException e) {
+            Log.e(TAG, "编码消息失败: " + topic, e);
+            if (callback != null) {
+                callback.onFailure(topic, "编码消息失败");
+            }
+            return;
+        }
+        publisher.publishDurable(topic, payload, 1, callback);
+        Log.d(TAG, "持久消息已入队 " + topic + ": " + payload.length + " 字节");
+    }
 
-        } catch (MqttException e) {
-            Log.e(TAG, "发布消息失败", e);
+    /**
+     * 按主题协商的编码序列化消息，失败时通知callback并返回null
+     */
+    private byte[] encodePayload(String topic, JSONObject message, MqttPublisher.PublishCallback callback) {
+        try {
+            return payloadCodecs.encode(topic, message);
+        } catch (IOException e) {
+            Log.e(TAG, "编码消息失败: " + topic, e);
+            if (callback != null) {
+                callback.onFailure(topic, "编码消息失败");
+            }
+            return null;
         }
     }
 
@@ -333,31 +828,92 @@ public class MqttManager {
      * 设置心跳
      */
     private void setupHeartbeat() {
-        heartbeatHandler = new Handler(Looper.getMainLooper());
-        heartbeatRunnable = new Runnable() {
+        // 状态采样（/proc、StatFs、PackageManager）和发布都在心跳线程上执行，不占用主线程
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "heartbeat");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        heartbeatPolicy = new AdaptiveHeartbeatPolicy(configManager.getHeartbeatInterval() * 1000L,
+                configManager.getHeartbeatMinInterval() * 1000L, configManager.getHeartbeatMaxInterval() * 1000L);
+        heartbeatScheduler = new HeartbeatScheduler(heartbeatExecutor, new Runnable() {
             @Override
             public void run() {
-                sendHeartbeat();
-                int interval = configManager.getHeartbeatInterval() * 1000; // 转换为毫秒
-                heartbeatHandler.postDelayed(this, interval);
+                sendHeartbeat(null);
+                heartbeatScheduler.setPeriod(heartbeatPolicy.nextIntervalMs());
             }
-        };
+        });
+        mainLooperMonitor = new MainLooperMonitor(heartbeatExecutor);
+        mainLooperMonitor.start();
+        startLinkProbe();
+    }
+
+    /**
+     * 定期发送链路回显探测（心跳线程）
+     */
+    private void startLinkProbe() {
+        long intervalMs = configManager.getLinkProbeInterval() * 1000L;
+        if (intervalMs <= 0) {
+            Log.i(TAG, "链路回显探测已关闭");
+            return;
+        }
+        heartbeatExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sendLinkProbe();
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 直接交给客户端发送QoS 0探测，不经过发布队列，测到的是链路本身的往返时间
+     */
+    private void sendLinkProbe() {
+        MqttAsyncClient client = mqttClient;
+        if (!isConnected || client == null) return;
+        long seq = linkMonitor.beginProbe();
+        try {
+            client.publish(echoTopic, Long.toString(seq).getBytes(StandardCharsets.US_ASCII), 0, false);
+        } catch (MqttException e) {
+            linkMonitor.cancelProbe(seq);
+            Log.d(TAG, "发送链路探测失败: " + e.getMessage());
+        }
+    }
+
+    private void onEcho(byte[] payload) {
+        try {
+            linkMonitor.onEcho(Long.parseLong(new String(payload, StandardCharsets.US_ASCII)));
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "无效的链路回显");
+        }
     }
 
     /**
      * 开始心跳
      */
-    private void startHeartbeat() {
-        stopHeartbeat();
-        heartbeatHandler.post(heartbeatRunnable);
+    private void startHeartbeat(long initialDelayMs) {
+        heartbeatScheduler.start(heartbeatPolicy.nextIntervalMs(), initialDelayMs);
+    }
+
+    /**
+     * 出现活动或链路异常时，如果当前是放大后的长间隔，立即按新间隔重新调度
+     */
+    private void retuneHeartbeat() {
+        if (heartbeatPolicy.shouldTighten(heartbeatScheduler.getPeriodMs())) {
+            heartbeatScheduler.setPeriod(heartbeatPolicy.nextIntervalMs());
+        }
     }
 
     /**
      * 停止心跳
      */
     private void stopHeartbeat() {
-        if (heartbeatHandler != null && heartbeatRunnable != null) {
-            heartbeatHandler.removeCallbacks(heartbeatRunnable);
+        if (heartbeatScheduler != null) {
+            heartbeatScheduler.stop();
         }
     }
 
@@ -370,23 +926,107 @@ public class MqttManager {
         return networkInfo != null && networkInfo.isConnected();
     }
 
+    /**
+     * 监听网络变化：断开时立即按断线处理，恢复时立即重连
+     */
+    private void registerNetworkListener() {
+        networkMonitor.addListener(new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkAvailable() {
+                orchestrator.onNetworkAvailable();
+            }
+
+            @Override
+            public void onNetworkLost() {
+                // 旧连接的套接字已经不可用，Paho要等keepalive超时才会发现，这里直接按断线处理
+                if (isConnected) {
+                    onDisconnected();
+                }
+                orchestrator.onNetworkLost();
+            }
+        });
+        networkMonitor.start(this);
+    }
+
+    /**
+     * 丢弃失效的连接（编排器线程），不发送DISCONNECT
+     */
+    private void abortClient() {
+        MqttAsyncClient client = mqttClient;
+        if (client == null || !client.isConnected()) return;
+        try {
+            client.disconnectForcibly(0, 1000, false);
+            Log.i(TAG, "已丢弃MQTT连接");
+        } catch (MqttException e) {
+            Log.w(TAG, "丢弃MQTT连接时异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 连接断开后的本地状态处理（连接丢失回调和网络断开共用）
+     */
+    private void onDisconnected() {
+        isConnected = false;
+        // 心跳继续运行，离线期间的快照写入环形缓冲区
+        if (telemetryUploader != null) {
+            telemetryUploader.stopFlush();
+        }
+        publisher.onConnectionChanged();
+        brokerSelector.onConnectionLost();
+        heartbeatPolicy.onConnectionLost();
+        retuneHeartbeat();
+    }
+
     /**
      * 断开连接
      */
     public void disconnect() {
+        orchestrator.stop();
         stopHeartbeat();
+        // 释放网络监听，没有下载在等待网络时注销广播，接收器注册在应用Context上，不注销会一直存在
+        networkMonitor.stop(this);
 
         if (mqttClient != null && mqttClient.isConnected()) {
+            // 等offline状态发出（或失败）后再断开，避免调用线程阻塞
+            updateStatus("offline", new MqttPublisher.PublishCallback() {
+                @Override
+                public void onSuccess(String topic) {
+                    closeConnection();
+                }
+
+                @Override
+                public void onFailure(String topic, String error) {
+                    closeConnection();
+                }
+            });
+        }
+
+        isConnected = false;
+    }
+
+    /**
+     * 异步断开MQTT连接
+     * Paho不允许在回调线程中断开，切换到主线程发起
+     */
+    private void closeConnection() {
+        new Handler(Looper.getMainLooper()).post(() -> {
             try {
-                updateStatus("offline");
-                mqttClient.disconnect();
-                Log.i(TAG, "MQTT已断开连接");
+                mqttClient.disconnect(null, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        publisher.onConnectionChanged();
+                        Log.i(TAG, "MQTT已断开连接");
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        Log.e(TAG, "断开MQTT连接失败", exception);
+                    }
+                });
             } catch (MqttException e) {
                 Log.e(TAG, "断开MQTT连接失败", e);
             }
-        }
-
-        isConnected = false;
+        });
     }
 
     /**
@@ -397,37 +1037,21 @@ public class MqttManager {
         @Override
         public void connectionLost(Throwable cause) {
             Log.w(TAG, "MQTT连接丢失", cause);
-            isConnected = false;
-            stopHeartbeat();
-
-            // 延迟重连
-            int delay = configManager.getReconnectDelay() * 1000;
-            new Handler(Looper.getMainLooper()).postDelayed(() -> connect(), delay);
+            onDisconnected();
+            // 由连接编排器按退避策略重连
+            orchestrator.onConnectionLost();
         }
 
         @Override
         public void messageArrived(String topic, MqttMessage message) throws Exception {
-            String payload = new String(message.getPayload());
-            Log.i(TAG, "收到消息 - 主题: " + topic + ", 内容: " + payload);
-
-            try {
-                JSONObject jsonMessage = new JSONObject(payload);
-                String type = jsonMessage.optString("type");
-
-                if (topic.endsWith("/content")) {
-                    // 处理内容推送
-                    handleContentPush(jsonMessage);
-                } else if (topic.endsWith("/commands")) {
-                    // 处理命令
-                    handleCommand(jsonMessage);
-                } else if (topic.equals(TOPIC_BROADCAST)) {
-                    // 处理广播消息
-                    handleBroadcast(jsonMessage);
-                }
-
-            } catch (JSONException e) {
-                Log.e(TAG, "解析消息失败", e);
+            if (topic.equals(echoTopic)) {
+                // 回显直接在回调线程处理，不经过收件箱排队，RTT不含本地排队时间
+                onEcho(message.getPayload());
+                return;
             }
+            // 只做入队，解析和处理都在工作线程上进行；收件箱满时在这里阻塞，返回前Paho不会确认该消息
+            Log.i(TAG, "收到消息 - 主题: " + topic + ", 大小: " + message.getPayload().length);
+            inboundDispatcher.dispatch(topic, message.getPayload(), topicRouter);
         }
 
         @Override
@@ -436,15 +1060,162 @@ public class MqttManager {
         }
     }
 
+    /**
+     * 命令处理器
+     */
+    private interface CommandHandler {
+        void handle(CommandMessage command) throws JSONException;
+    }
+
+    /**
+     * 注册主题处理器和命令处理器 - 构造时执行一次，之后只读
+     */
+    private void registerHandlers() {
+        topicRouter = new TopicRouter();
+        topicRouter.register("device/+/content", new InboundDispatcher.MessageHandler() {
+            @Override
+            public void handle(String topic, byte[] payload) {
+                logPayload(topic, payload);
+                ContentPushMessage message = contentMessages.get();
+                try {
+                    if (CborCodec.looksLikeCbor(payload)) {
+                        message.readFrom(payloadCodecs.decode(payload));
+                    } else {
+                        message.decode(payload);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "解析内容推送失败", e);
+                    return;
+                }
+                recordFirstContent();
+                String key = message.isValid() ? message.dedupKey() : null;
+                if (key != null && !inboundDedup.markFirstSeen(key)) {
+                    Log.i(TAG, "忽略重复的内容推送: " + key);
+                    return;
+                }
+                handleContentPush(message);
+            }
+        });
+        topicRouter.register("device/+/commands", new InboundDispatcher.MessageHandler() {
+            @Override
+            public void handle(String topic, byte[] payload) {
+                logPayload(topic, payload);
+                CommandMessage message = commandMessages.get();
+                try {
+                    if (CborCodec.looksLikeCbor(payload)) {
+                        message.readFrom(payloadCodecs.decode(payload));
+                    } else {
+                        message.decode(payload);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "解析命令失败", e);
+                    return;
+                }
+                String key = message.dedupKey();
+                if (key != null && !inboundDedup.markFirstSeen(key)) {
+                    Log.i(TAG, "忽略重复的命令: " + key);
+                    return;
+                }
+                handleCommand(message);
+            }
+        });
+        topicRouter.register(TOPIC_BROADCAST, new InboundDispatcher.MessageHandler() {
+            @Override
+            public void handle(String topic, byte[] payload) {
+                JSONObject message = parseMessage(topic, payload);
+                if (message != null) {
+                    handleBroadcast(message);
+                }
+            }
+        });
+
+        commandHandlers.put("screenshot", command -> handleScreenshotCommand(command.getData()));
+        commandHandlers.put("restart", command -> handleRestartCommand());
+        commandHandlers.put("get_status", command -> updateStatus("online", null));
+        // 服务端不认识注册指纹时请求完整注册信息
+        commandHandlers.put("request_register", command -> registerDevice(true));
+        commandHandlers.put("set_codec", command -> handleSetCodecCommand(command.getData()));
+        commandHandlers.put("set_heartbeat", command -> handleSetHeartbeatCommand(command.getData()));
+        commandHandlers.put("prefetch", command -> handlePrefetchCommand(command.getData()));
+        commandHandlers.put("cancel_download", command -> handleCancelDownloadCommand(command.getData()));
+        commandHandlers.put("heartbeat_keyframe", command -> {
+            // 服务端发现心跳序号缺口时请求完整关键帧
+            if (heartbeatEncoder != null) {
+                heartbeatEncoder.requestKeyframe();
+            }
+        });
+    }
+
+    /**
+     * 解析消息（JSON或CBOR） - 在工作线程上执行
+     */
+    private JSONObject parseMessage(String topic, byte[] payload) {
+        try {
+            logPayload(topic, payload);
+            return payloadCodecs.decode(payload);
+        } catch (IOException e) {
+            Log.e(TAG, "解析消息失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 记录重连后收到第一条内容推送的耗时
+     */
+    private void recordFirstContent() {
+        if (awaitingFirstContent) {
+            awaitingFirstContent = false;
+            lastTimeToFirstContentMs = SystemClock.elapsedRealtime() - connectedAt;
+            Log.i(TAG, "重连后首条内容推送耗时 " + lastTimeToFirstContentMs + "ms");
+        }
+    }
+
+    /**
+     * 获取会话恢复指标（用于状态上报）
+     */
+    private JSONObject getSessionMetrics() throws JSONException {
+        JSONObject metrics = new JSONObject();
+        metrics.put("mode", clientPersistentSession ? ConfigManager.SESSION_PERSISTENT : ConfigManager.SESSION_CLEAN);
+        metrics.put("sessionPresent", lastSessionPresent);
+        metrics.put("lastResumeMs", lastResumeMs);
+        metrics.put("lastTimeToFirstContentMs", lastTimeToFirstContentMs);
+        metrics.put("subscribesSkipped", subscribesSkipped);
+        return metrics;
+    }
+
+    /**
+     * 输出消息原文，只在开启VERBOSE日志（adb shell setprop log.tag.MqttManager VERBOSE）时转换字符串
+     */
+    private void logPayload(String topic, byte[] payload) {
+        if (Log.isLoggable(TAG, Log.VERBOSE)) {
+            String content = CborCodec.looksLikeCbor(payload)
+                    ? "<cbor " + payload.length + " bytes>"
+                    : new String(payload, StandardCharsets.UTF_8);
+            Log.v(TAG, "处理消息 - 主题: " + topic + ", 内容: " + content);
+        }
+    }
+
     /**
      * 处理内容推送
      */
-    private void handleContentPush(JSONObject message) {
+    private void handleContentPush(ContentPushMessage message) {
         Log.i(TAG, "处理内容推送");
         contentManager.handleContentPush(message, new ContentManager.ContentCallback() {
             @Override
             public void onResult(String contentId, String status, String error) {
-                sendContentResponse(contentId, status, error);
+                heartbeatPolicy.onContentStatus(status);
+                retuneHeartbeat();
+                sendContentResponse(contentId, status, error, new MqttPublisher.PublishCallback() {
+                    @Override
+                    public void onSuccess(String topic) {
+                        Log.d(TAG, "内容响应已送达: " + contentId + " -> " + status);
+                    }
+
+                    @Override
+                    public void onFailure(String topic, String reason) {
+                        Log.w(TAG, "内容响应发送失败: " + contentId + ", " + reason);
+                    }
+                });
             }
         });
     }
@@ -452,25 +1223,21 @@ public class MqttManager {
     /**
      * 处理命令
      */
-    private void handleCommand(JSONObject message) {
+    private void handleCommand(CommandMessage message) {
         try {
-            JSONObject data = message.getJSONObject("data");
-            String command = data.getString("command");
+            String command = message.command;
+            if (command == null) {
+                Log.w(TAG, "命令消息缺少command字段");
+                return;
+            }
 
             Log.i(TAG, "处理命令: " + command);
 
-            switch (command) {
-                case "screenshot":
-                    handleScreenshotCommand(data);
-                    break;
-                case "restart":
-                    handleRestartCommand();
-                    break;
-                case "get_status":
-                    updateStatus("online");
-                    break;
-                default:
-                    Log.w(TAG, "未知命令: " + command);
+            CommandHandler handler = commandHandlers.get(command);
+            if (handler != null) {
+                handler.handle(message);
+            } else {
+                Log.w(TAG, "未知命令: " + command);
             }
 
         } catch (JSONException e) {
@@ -497,6 +1264,83 @@ public class MqttManager {
         }
     }
 
+    /**
+     * 处理编码协商命令：{"codec":"cbor","topics":["device/heartbeat",...]}
+     * 不支持的主题或编码保持JSON
+     */
+    private void handleSetCodecCommand(JSONObject data) {
+        String codec = data.optString("codec", JsonCodec.NAME);
+        JSONArray topics = data.optJSONArray("topics");
+        if (topics == null) {
+            Log.w(TAG, "set_codec命令缺少topics");
+            return;
+        }
+        for (int i = 0; i < topics.length(); i++) {
+            payloadCodecs.setCodec(topics.optString(i), codec);
+        }
+    }
+
+    /**
+     * 处理心跳配置命令：{"interval":30,"minInterval":15,"maxInterval":300}（秒，字段可选）
+     * 间隔立即生效，keepalive在下次连接时按新的上限设置
+     */
+    private void handleSetHeartbeatCommand(JSONObject data) {
+        int interval = data.optInt("interval", configManager.getHeartbeatInterval());
+        int minInterval = data.optInt("minInterval", configManager.getHeartbeatMinInterval());
+        int maxInterval = data.optInt("maxInterval", configManager.getHeartbeatMaxInterval());
+        if (minInterval < 5 || maxInterval < minInterval || interval < minInterval || interval > maxInterval) {
+            Log.w(TAG, "无效的心跳配置: " + interval + " [" + minInterval + ", " + maxInterval + "]");
+            return;
+        }
+        configManager.setHeartbeatInterval(interval);
+        configManager.setHeartbeatMinInterval(minInterval);
+        configManager.setHeartbeatMaxInterval(maxInterval);
+        heartbeatPolicy.setBounds(interval * 1000L, minInterval * 1000L, maxInterval * 1000L);
+        heartbeatScheduler.setPeriod(heartbeatPolicy.nextIntervalMs());
+        Log.i(TAG, "心跳配置已更新: " + interval + "s [" + minInterval + "s, " + maxInterval + "s]");
+    }
+
+    /**
+     * 处理预取命令：参数与内容推送的data相同，视频以后台优先级下载到缓存而不播放
+     * 下载完成响应prefetched；预取中的内容随后被推送播放时提升为紧急下载
+     */
+    private void handlePrefetchCommand(JSONObject data) throws JSONException {
+        JSONObject wrapper = new JSONObject();
+        wrapper.put("data", data);
+        ContentPushMessage message = new ContentPushMessage();
+        message.readFrom(wrapper);
+        contentManager.prefetch(message, new ContentManager.ContentCallback() {
+            @Override
+            public void onResult(String contentId, String status, String error) {
+                sendContentResponse(contentId, status, error, new MqttPublisher.PublishCallback() {
+                    @Override
+                    public void onSuccess(String topic) {
+                        Log.d(TAG, "预取响应已送达: " + contentId + " -> " + status);
+                    }
+
+                    @Override
+                    public void onFailure(String topic, String reason) {
+                        Log.w(TAG, "预取响应发送失败: " + contentId + ", " + reason);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 处理取消下载命令：{"contentId":"..."}
+     */
+    private void handleCancelDownloadCommand(JSONObject data) {
+        String contentId = data.optString("contentId", null);
+        if (contentId == null || contentId.isEmpty()) {
+            Log.w(TAG, "cancel_download命令缺少contentId");
+            return;
+        }
+        if (!contentManager.cancelDownload(contentId)) {
+            Log.i(TAG, "没有进行中的下载: " + contentId);
+        }
+    }
+
     /**
      * 处理截图命令
      */
@@ -511,16 +1355,27 @@ public class MqttManager {
      */
     private void handleRestartCommand() {
         Log.i(TAG, "收到重启命令");
-        // 重启应用
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+        // 重启应用：在单独线程上等待已入队的消息（内容响应、状态）发完，不占用主线程
+        Thread restart = new Thread(() -> {
+            if (!publisher.awaitIdle(RESTART_DRAIN_MS)) {
+                Log.w(TAG, "发布队列未在 " + RESTART_DRAIN_MS + "ms 内发完，未确认的持久消息重启后重发");
+            }
+            // 结束进程前把未确认消息落盘，重启后重发
+            if (journal != null) {
+                journal.sync();
+            }
+            contentManager.sync();
             android.os.Process.killProcess(android.os.Process.myPid());
-        }, 1000);
+        }, "restart");
+        restart.setDaemon(true);
+        restart.start();
     }
 
     /**
      * 发送内容响应
      */
-    private void sendContentResponse(String contentId, String status, String error) {
+    private void sendContentResponse(String contentId, String status, String error,
+                                     MqttPublisher.PublishCallback callback) {
         try {
             JSONObject message = new JSONObject();
             message.put("type", "content_response");
@@ -538,8 +1393,8 @@ public class MqttManager {
             }
             message.put("data", data);
 
-            publishMessage(TOPIC_CONTENT_RESPONSE, message.toString());
-            Log.i(TAG, "内容响应已发送: " + status);
+            publishDurableMessage(TOPIC_CONTENT_RESPONSE, message, callback);
+            Log.i(TAG, "内容响应已提交: " + status);
 
         } catch (JSONException e) {
             Log.e(TAG, "创建内容响应失败", e);
@@ -558,4 +1413,11 @@ public class MqttManager {
     public String getClientId() {
         return clientId;
     }
+
+    /**
+     * 链路质量监测，下载调度等模块据此评分（getScore/getQuality）调整策略
+     */
+    public LinkQualityMonitor getLinkQuality() {
+        return linkMonitor;
+    }
 }
@@ -0,0 +1,645 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MQTT异步发布管道
+ * 出站消息按主题分到三个优先级通道（控制/确认、状态、批量遥测），每个通道有独立的队列上限和丢弃策略；
+ * 单个I/O线程总是先取高优先级通道的消息，通过MqttAsyncClient发送，调用方不会被阻塞。
+ * 在途（已发出但未收到ACK）消息总数受限，每个通道的名额上限同时约束它和所有更低优先级的通道，
+ * 状态和批量通道合起来也用不满全部名额，保证确认消息不会排在状态和遥测之后。
+ * 设置了MessageJournal时，持久消息在ACK之前会一直保留在日志中，重连后重发；
+ * 持久消息以JSON保存，每次发送时才按当前协商的编码转换，重连后编码回到JSON时不会重发旧编码的字节
+ */
+public class MqttPublisher {
+
+    private static final String TAG = "MqttPublisher";
+
+    // 等待连接时的轮询间隔
+    private static final long CONNECT_POLL_MS = 1000;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+        DROP_OLDEST,  // 丢弃队首最旧的消息，接收新消息
+        DROP_NEWEST   // 拒绝新消息
+    }
+
+    /**
+     * 出站优先级，按声明顺序从高到低
+     */
+    public enum Priority {
+        CONTROL,  // 内容确认、注册等控制消息
+        STATUS,   // 状态上报
+        BULK      // 心跳、离线遥测批次
+    }
+
+    /**
+     * 发布结果回调
+     * 注意：回调在Paho回调线程或发布线程上执行，不要在其中做耗时操作
+     */
+    public interface PublishCallback {
+        void onSuccess(String topic);
+        void onFailure(String topic, String error);
+    }
+
+    /**
+     * 发布确认监听，在Paho回调线程上执行
+     */
+    public interface AckListener {
+        /**
+         * QoS 1及以上的消息从交给客户端到收到PUBACK的耗时
+         */
+        void onAck(String topic, long latencyMs);
+    }
+
+    /**
+     * 持久消息发送前的编码转换，在发布线程上执行
+     */
+    public interface PayloadEncoder {
+        /**
+         * @param payload 持久消息的JSON载荷
+         * @return 按主题当前编码发送的字节
+         */
+        byte[] encode(String topic, byte[] payload) throws IOException;
+    }
+
+    /**
+     * 待发送的出站消息
+     */
+    private static class OutboundMessage {
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final PublishCallback callback;
+        final long journalId;
+        final boolean durable;
+        final Lane lane;
+
+        OutboundMessage(String topic, byte[] payload, int qos, PublishCallback callback, long journalId,
+                        boolean durable, Lane lane) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.callback = callback;
+            this.journalId = journalId;
+            this.durable = durable;
+            this.lane = lane;
+        }
+    }
+
+    /**
+     * 优先级通道，所有字段由lock保护
+     */
+    private static class Lane {
+        final Priority priority;
+        final ArrayDeque<OutboundMessage> queue = new ArrayDeque<>();
+        int capacity;
+        OverflowPolicy overflowPolicy;
+        int maxInFlight;
+        int inFlight;
+        long dropped;
+
+        Lane(Priority priority, int capacity, OverflowPolicy overflowPolicy, int maxInFlight) {
+            this.priority = priority;
+            this.capacity = capacity;
+            this.overflowPolicy = overflowPolicy;
+            this.maxInFlight = maxInFlight;
+        }
+    }
+
+    private final Lane[] lanes;
+    private final HashMap<String, Priority> topicPriorities = new HashMap<>();
+    private final int maxInFlight;
+    private final ReentrantLock lock = new ReentrantLock();
+    // 有消息入队或在途名额释放时唤醒发布线程
+    private final Condition sendable = lock.newCondition();
+    private int inFlightTotal = 0;
+    private final Object connectLock = new Object();
+
+    private volatile IMqttAsyncClient client;
+    private volatile AckListener ackListener;
+    private volatile PayloadEncoder durableEncoder;
+    private MessageJournal journal;
+    // 已在队列或在途中的日志消息，重放时跳过
+    private final ConcurrentHashMap<Long, Boolean> liveJournalIds = new ConcurrentHashMap<>();
+    private volatile boolean running = false;
+    private Thread ioThread;
+
+    // 统计
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * 各通道默认容量为queueCapacity、可占满全部在途名额、队满丢弃最旧消息，
+     * 可在start前通过configureLane调整
+     */
+    public MqttPublisher(int queueCapacity, int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        Priority[] priorities = Priority.values();
+        this.lanes = new Lane[priorities.length];
+        for (Priority priority : priorities) {
+            lanes[priority.ordinal()] = new Lane(priority, queueCapacity, OverflowPolicy.DROP_OLDEST, maxInFlight);
+        }
+    }
+
+    /**
+     * 设置通道的队列上限、丢弃策略和可占用的在途名额
+     * @param laneMaxInFlight 该通道及所有更低优先级通道合计可占用的在途名额，
+     *                        小于总名额时差额留给更高优先级的通道
+     */
+    public void configureLane(Priority priority, int capacity, OverflowPolicy overflowPolicy, int laneMaxInFlight) {
+        lock.lock();
+        try {
+            Lane lane = lanes[priority.ordinal()];
+            lane.capacity = Math.max(1, capacity);
+            lane.overflowPolicy = overflowPolicy;
+            lane.maxInFlight = Math.max(1, Math.min(maxInFlight, laneMaxInFlight));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 指定主题的优先级，未指定的主题走STATUS通道
+     */
+    public void setTopicPriority(String topic, Priority priority) {
+        synchronized (topicPriorities) {
+            topicPriorities.put(topic, priority);
+        }
+    }
+
+    private Lane laneFor(String topic) {
+        Priority priority;
+        synchronized (topicPriorities) {
+            priority = topicPriorities.get(topic);
+        }
+        return lanes[(priority != null ? priority : Priority.STATUS).ordinal()];
+    }
+
+    /**
+     * 绑定MQTT客户端
+     */
+    public void setClient(IMqttAsyncClient client) {
+        this.client = client;
+        onConnectionChanged();
+    }
+
+    public void setAckListener(AckListener listener) {
+        this.ackListener = listener;
+    }
+
+    /**
+     * 设置持久消息的发送编码，需在setJournal之前设置
+     */
+    public void setDurableEncoder(PayloadEncoder encoder) {
+        this.durableEncoder = encoder;
+    }
+
+    /**
+     * 设置持久消息日志，并把上次进程遗留的未确认消息放回队列
+     */
+    public void setJournal(MessageJournal journal) {
+        this.journal = journal;
+        replayJournal();
+    }
+
+    /**
+     * 重发日志中未确认且不在队列/在途中的消息，重连成功后调用
+     */
+    public void replayJournal() {
+        if (journal == null) return;
+        List<MessageJournal.Entry> entries = journal.pending();
+        int replayed = 0;
+        lock.lock();
+        try {
+            for (MessageJournal.Entry entry : entries) {
+                Lane lane = laneFor(entry.topic);
+                // 只占用通道剩余空间，不挤掉新消息
+                if (lane.queue.size() >= lane.capacity) {
+                    continue;
+                }
+                if (liveJournalIds.putIfAbsent(entry.id, Boolean.TRUE) != null) {
+                    continue;
+                }
+                lane.queue.addLast(new OutboundMessage(entry.topic, entry.payload, entry.qos, null, entry.id, true, lane));
+                replayed++;
+            }
+            if (replayed > 0) {
+                sendable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (replayed > 0) {
+            Log.i(TAG, "重放未确认消息: " + replayed + " 条");
+        }
+    }
+
+    /**
+     * 连接状态变化时调用，唤醒等待连接的发布线程
+     */
+    public void onConnectionChanged() {
+        synchronized (connectLock) {
+            connectLock.notifyAll();
+        }
+    }
+
+    /**
+     * 启动发布线程
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "mqtt-publisher");
+        ioThread.start();
+        Log.i(TAG, "发布线程已启动");
+    }
+
+    /**
+     * 停止发布线程，队列中剩余的消息以失败回调结束
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        if (ioThread != null) {
+            ioThread.interrupt();
+            ioThread = null;
+        }
+        ArrayList<OutboundMessage> remaining = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Lane lane : lanes) {
+                remaining.addAll(lane.queue);
+                lane.queue.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (OutboundMessage msg : remaining) {
+            fail(msg, "发布管道已停止");
+        }
+        Log.i(TAG, "发布线程已停止");
+    }
+
+    /**
+     * 异步发布消息，立即返回
+     * @return 消息是否被接收入队
+     */
+    public boolean publish(String topic, byte[] payload, int qos, PublishCallback callback) {
+        return enqueue(new OutboundMessage(topic, payload, qos, callback, -1, false, laneFor(topic)));
+    }
+
+    /**
+     * 异步发布持久消息：先写入日志，服务器确认后才从日志中移除，
+     * 进程被杀或连接中断时不会丢失。payload为JSON，发送时经durableEncoder转换。未设置日志时不落盘
+     */
+    public boolean publishDurable(String topic, byte[] payload, int qos, PublishCallback callback) {
+        long journalId = -1;
+        if (journal != null && qos > 0) {
+            journalId = journal.append(topic, payload, qos);
+            if (journalId > 0) {
+                liveJournalIds.put(journalId, Boolean.TRUE);
+            }
+        }
+        return enqueue(new OutboundMessage(topic, payload, qos, callback, journalId, true, laneFor(topic)));
+    }
+
+    private boolean enqueue(OutboundMessage msg) {
+        Lane lane = msg.lane;
+        OutboundMessage evicted = null;
+        boolean accepted = true;
+        lock.lock();
+        try {
+            if (lane.queue.size() >= lane.capacity) {
+                lane.dropped++;
+                if (lane.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    evicted = lane.queue.pollFirst();
+                } else {
+                    accepted = false;
+                }
+            }
+            if (accepted) {
+                lane.queue.addLast(msg);
+                sendable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 回调在锁外执行
+        if (evicted != null) {
+            droppedCount.incrementAndGet();
+            Log.w(TAG, lane.priority + "通道已满，丢弃最旧消息: " + evicted.topic);
+            fail(evicted, "发布队列已满，消息被丢弃");
+        }
+        if (!accepted) {
+            droppedCount.incrementAndGet();
+            Log.w(TAG, lane.priority + "通道已满，拒绝新消息: " + msg.topic);
+            fail(msg, "发布队列已满");
+        }
+        return accepted;
+    }
+
+    /**
+     * 发布线程主循环
+     */
+    private void drainLoop() {
+        while (running) {
+            OutboundMessage msg;
+            try {
+                awaitConnected();
+                msg = takeNext();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (msg != null) {
+                send(msg);
+            }
+        }
+    }
+
+    /**
+     * 取出优先级最高、且通道和总在途名额都未用满的消息，同时占用在途名额；
+     * 等待期间连接断开时返回null
+     */
+    private OutboundMessage takeNext() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (inFlightTotal < maxInFlight) {
+                    for (int i = 0; i < lanes.length; i++) {
+                        Lane lane = lanes[i];
+                        if (!lane.queue.isEmpty() && hasSlot(i)) {
+                            lane.inFlight++;
+                            inFlightTotal++;
+                            return lane.queue.pollFirst();
+                        }
+                    }
+                }
+                sendable.await(CONNECT_POLL_MS, TimeUnit.MILLISECONDS);
+                if (!running) {
+                    throw new InterruptedException();
+                }
+                if (!isClientConnected()) {
+                    return null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 第index个通道能否再发一条：它自己以及每个更高优先级通道的名额上限，
+     * 都要容得下该上限所约束的通道（自身及更低优先级）的在途合计再加一
+     */
+    private boolean hasSlot(int index) {
+        int lowerInFlight = 0;
+        for (int i = lanes.length - 1; i > index; i--) {
+            lowerInFlight += lanes[i].inFlight;
+        }
+        for (int i = index; i >= 0; i--) {
+            lowerInFlight += lanes[i].inFlight;
+            if (lowerInFlight >= lanes[i].maxInFlight) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 释放消息占用的在途名额
+     */
+    private void release(OutboundMessage msg) {
+        lock.lock();
+        try {
+            msg.lane.inFlight--;
+            inFlightTotal--;
+            sendable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞直到客户端已连接
+     */
+    private void awaitConnected() throws InterruptedException {
+        synchronized (connectLock) {
+            while (running && !isClientConnected()) {
+                connectLock.wait(CONNECT_POLL_MS);
+            }
+        }
+        if (!running) {
+            throw new InterruptedException();
+        }
+    }
+
+    private boolean isClientConnected() {
+        IMqttAsyncClient current = client;
+        return current != null && current.isConnected();
+    }
+
+    /**
+     * 把消息交给MqttAsyncClient，ACK到达后释放在途名额
+     */
+    private void send(final OutboundMessage msg) {
+        final long sentAt = System.nanoTime();
+        try {
+            client.publish(msg.topic, wirePayload(msg), msg.qos, false, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    release(msg);
+                    publishedCount.incrementAndGet();
+                    AckListener listener = ackListener;
+                    if (listener != null && msg.qos > 0) {
+                        listener.onAck(msg.topic, (System.nanoTime() - sentAt) / 1000000L);
+                    }
+                    if (msg.journalId > 0) {
+                        journal.ack(msg.journalId);
+                        liveJournalIds.remove(msg.journalId);
+                    }
+                    Log.d(TAG, "消息已发布到 " + msg.topic);
+                    if (msg.callback != null) {
+                        msg.callback.onSuccess(msg.topic);
+                    }
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    release(msg);
+                    Log.e(TAG, "发布消息失败: " + msg.topic, exception);
+                    fail(msg, exception != null ? exception.getMessage() : "未知错误");
+                }
+            });
+        } catch (MqttException e) {
+            release(msg);
+            if (e.getReasonCode() == MqttException.REASON_CODE_CLIENT_NOT_CONNECTED) {
+                // 发送前连接刚好断开，放回队首等待重连
+                lock.lock();
+                try {
+                    msg.lane.queue.addFirst(msg);
+                } finally {
+                    lock.unlock();
+                }
+                Log.w(TAG, "连接已断开，消息放回队列: " + msg.topic);
+                return;
+            }
+            Log.e(TAG, "发布消息失败: " + msg.topic, e);
+            fail(msg, e.getMessage());
+        }
+    }
+
+    /**
+     * 持久消息按主题当前的编码转换，转换失败时发送JSON原文（所有服务端都支持）
+     */
+    private byte[] wirePayload(OutboundMessage msg) {
+        PayloadEncoder encoder = durableEncoder;
+        if (!msg.durable || encoder == null) {
+            return msg.payload;
+        }
+        try {
+            return encoder.encode(msg.topic, msg.payload);
+        } catch (IOException e) {
+            Log.w(TAG, "持久消息编码失败，按JSON发送: " + msg.topic, e);
+            return msg.payload;
+        }
+    }
+
+    private void fail(OutboundMessage msg, String error) {
+        failedCount.incrementAndGet();
+        if (msg.journalId > 0) {
+            // 日志中保留，下次重连时重发
+            liveJournalIds.remove(msg.journalId);
+        }
+        if (msg.callback != null) {
+            msg.callback.onFailure(msg.topic, error);
+        }
+    }
+
+    /**
+     * 等待队列清空且没有在途消息，最多等待timeoutMs毫秒
+     */
+    public boolean awaitIdle(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                if (isIdle()) {
+                    return true;
+                }
+                Thread.sleep(20);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private boolean isIdle() {
+        lock.lock();
+        try {
+            if (inFlightTotal > 0) return false;
+            for (Lane lane : lanes) {
+                if (!lane.queue.isEmpty()) return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取各通道的队列深度、在途数量和丢弃数（用于状态上报）
+     */
+    public JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            lock.lock();
+            try {
+                for (Lane lane : lanes) {
+                    JSONObject laneMetrics = new JSONObject();
+                    laneMetrics.put("queued", lane.queue.size());
+                    laneMetrics.put("capacity", lane.capacity);
+                    laneMetrics.put("inFlight", lane.inFlight);
+                    laneMetrics.put("dropped", lane.dropped);
+                    metrics.put(lane.priority.name().toLowerCase(Locale.US), laneMetrics);
+                }
+            } finally {
+                lock.unlock();
+            }
+            metrics.put("published", publishedCount.get());
+            metrics.put("failed", failedCount.get());
+            metrics.put("journalPending", getJournalPendingCount());
+        } catch (JSONException e) {
+            Log.e(TAG, "创建发布指标失败", e);
+        }
+        return metrics;
+    }
+
+    // Getter方法
+    public int getJournalPendingCount() {
+        return journal != null ? journal.getPendingCount() : 0;
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            int size = 0;
+            for (Lane lane : lanes) {
+                size += lane.queue.size();
+            }
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightCount() {
+        lock.lock();
+        try {
+            return inFlightTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,212 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 网络状态监听
+ * 订阅CONNECTIVITY_ACTION广播（API 19没有NetworkCallback），维护当前网络是否可用及其标识，
+ * 网络断开、恢复时立即通知监听者，不需要各模块自己轮询。
+ * 网络切换（例如Wi-Fi换到以太网）时旧连接绑定的接口已经失效，按先断开再恢复通知。
+ * 多个模块共用一个实例，各自以自身为持有者调用start/stop，最后一个持有者释放后才注销广播。
+ */
+public class NetworkMonitor {
+
+    private static final String TAG = "NetworkMonitor";
+
+    /**
+     * 网络变化监听，在主线程回调，不要在其中做耗时操作
+     */
+    public interface Listener {
+        void onNetworkAvailable();
+        void onNetworkLost();
+    }
+
+    private final Context context;
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Object availableLock = new Object();
+    private final Set<Object> holders = new HashSet<>();
+    private BroadcastReceiver receiver;
+
+    private volatile boolean available;
+    private volatile String networkId;
+
+    // 指标
+    private long lossCount = 0;
+    private long lostAt = 0;
+    private long availableAt = 0;
+    private long lastOutageMs = -1;
+    private boolean recoveryPending = false;
+    private long lastRecoveryMs = -1;
+
+    public NetworkMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        NetworkInfo info = activeNetwork();
+        this.available = info != null && info.isConnected();
+        this.networkId = available ? identify(info) : null;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 登记持有者，第一个持有者登记时注册广播；同一持有者重复调用忽略。
+     * CONNECTIVITY_ACTION是粘性广播，注册后会立即收到一次当前状态，停止期间的变化由此补上
+     */
+    public synchronized void start(Object holder) {
+        if (!holders.add(holder) || receiver != null) return;
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                update();
+            }
+        };
+        context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * 释放持有者，所有持有者都释放后注销广播
+     */
+    public synchronized void stop(Object holder) {
+        if (!holders.remove(holder) || !holders.isEmpty() || receiver == null) return;
+        try {
+            context.unregisterReceiver(receiver);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "注销网络广播失败", e);
+        }
+        receiver = null;
+    }
+
+    /**
+     * 当前网络是否可用（广播维护的缓存值，不做系统调用）
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * 阻塞等待网络可用
+     * @return 在超时前网络可用返回true
+     */
+    public boolean awaitAvailable(long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        synchronized (availableLock) {
+            while (!available) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) return false;
+                availableLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 断网后重新建立连接时调用，记录从网络恢复到连接可用的耗时
+     */
+    public synchronized void onReconnected() {
+        if (recoveryPending && availableAt > 0) {
+            lastRecoveryMs = SystemClock.elapsedRealtime() - availableAt;
+            recoveryPending = false;
+            Log.i(TAG, "网络恢复后 " + lastRecoveryMs + "ms 重新连接");
+        }
+    }
+
+    private void update() {
+        NetworkInfo info = activeNetwork();
+        boolean nowAvailable = info != null && info.isConnected();
+        String nowId = nowAvailable ? identify(info) : null;
+        boolean wasAvailable = available;
+        String previousId = networkId;
+
+        if (wasAvailable && (!nowAvailable || !nowId.equals(previousId))) {
+            markLost();
+            Log.i(TAG, "网络断开: " + previousId);
+            for (Listener listener : listeners) {
+                listener.onNetworkLost();
+            }
+        }
+        if (nowAvailable && (!wasAvailable || !nowId.equals(previousId))) {
+            markAvailable(nowId);
+            Log.i(TAG, "网络可用: " + nowId);
+            for (Listener listener : listeners) {
+                listener.onNetworkAvailable();
+            }
+        }
+    }
+
+    private synchronized void markLost() {
+        available = false;
+        networkId = null;
+        lossCount++;
+        lostAt = SystemClock.elapsedRealtime();
+        recoveryPending = true;
+    }
+
+    private void markAvailable(String id) {
+        synchronized (this) {
+            networkId = id;
+            long now = SystemClock.elapsedRealtime();
+            availableAt = now;
+            if (lostAt > 0) {
+                lastOutageMs = now - lostAt;
+            }
+        }
+        synchronized (availableLock) {
+            available = true;
+            availableLock.notifyAll();
+        }
+    }
+
+    private NetworkInfo activeNetwork() {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm != null ? cm.getActiveNetworkInfo() : null;
+        } catch (SecurityException e) {
+            Log.e(TAG, "读取网络状态失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 网络标识：类型加附加信息（Wi-Fi为SSID），同类型不同网络也能区分
+     */
+    private static String identify(NetworkInfo info) {
+        String extra = info.getExtraInfo();
+        return info.getTypeName() + (extra != null ? ":" + extra : "");
+    }
+
+    /**
+     * 获取网络指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("available", available);
+            metrics.put("network", networkId);
+            metrics.put("losses", lossCount);
+            metrics.put("lastOutageMs", lastOutageMs);
+            metrics.put("lastRecoveryMs", lastRecoveryMs);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建网络指标失败", e);
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,20 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * 消息载荷编解码器
+ */
+public interface PayloadCodec {
+
+    /**
+     * 编码器名称，注册时上报给服务端（如 "json"、"cbor"）
+     */
+    String getName();
+
+    byte[] encode(JSONObject message) throws IOException;
+
+    JSONObject decode(byte[] payload) throws IOException;
+}
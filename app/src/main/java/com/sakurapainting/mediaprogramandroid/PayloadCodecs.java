@@ -0,0 +1,121 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按主题选择载荷编解码器
+ * 设备在注册消息中上报支持的编码，服务端通过set_codec命令为指定主题启用二进制编码；
+ * 未协商或协商失败的主题一律使用JSON。每次重连后回到JSON，重新协商。
+ * 入站消息按首字节识别编码，两种格式都能处理。
+ */
+public class PayloadCodecs {
+
+    private static final String TAG = "PayloadCodecs";
+
+    private final JsonCodec jsonCodec = new JsonCodec();
+    private final CborCodec cborCodec = new CborCodec();
+    private final LinkedHashMap<String, PayloadCodec> available = new LinkedHashMap<>();
+    private final Set<String> negotiableTopics = new HashSet<>();
+    private final ConcurrentHashMap<String, PayloadCodec> topicCodecs = new ConcurrentHashMap<>();
+
+    /**
+     * @param negotiableTopics 允许切换为二进制编码的主题
+     */
+    public PayloadCodecs(String... negotiableTopics) {
+        available.put(cborCodec.getName(), cborCodec);
+        available.put(jsonCodec.getName(), jsonCodec);
+        for (String topic : negotiableTopics) {
+            this.negotiableTopics.add(topic);
+        }
+    }
+
+    /**
+     * 获取主题当前使用的编码器
+     */
+    public PayloadCodec forTopic(String topic) {
+        PayloadCodec codec = topicCodecs.get(topic);
+        return codec != null ? codec : jsonCodec;
+    }
+
+    /**
+     * 为主题设置编码器
+     * @return 主题不允许协商或编码器不支持时返回false，该主题保持原编码
+     */
+    public boolean setCodec(String topic, String codecName) {
+        PayloadCodec codec = available.get(codecName);
+        if (codec == null || !negotiableTopics.contains(topic)) {
+            Log.w(TAG, "无法为主题 " + topic + " 启用编码: " + codecName);
+            return false;
+        }
+        if (codec == jsonCodec) {
+            topicCodecs.remove(topic);
+        } else {
+            topicCodecs.put(topic, codec);
+        }
+        Log.i(TAG, "主题 " + topic + " 使用编码: " + codecName);
+        return true;
+    }
+
+    /**
+     * 所有主题回到JSON（重连时调用）
+     */
+    public void reset() {
+        topicCodecs.clear();
+    }
+
+    /**
+     * 支持的编码名称，按优先级排列，用于注册消息
+     */
+    public JSONArray getSupportedNames() {
+        JSONArray names = new JSONArray();
+        for (String name : available.keySet()) {
+            names.put(name);
+        }
+        return names;
+    }
+
+    /**
+     * 编码出站消息
+     */
+    public byte[] encode(String topic, JSONObject message) throws IOException {
+        return forTopic(topic).encode(message);
+    }
+
+    /**
+     * 编码为JSON，与主题协商的编码无关（用于保存到出站日志）
+     */
+    public byte[] encodeJson(JSONObject message) throws IOException {
+        return jsonCodec.encode(message);
+    }
+
+    /**
+     * 把载荷转换为主题当前使用的编码，编码已一致时原样返回
+     * （旧版本的出站日志中可能存有CBOR载荷，按首字节识别）
+     */
+    public byte[] transcode(String topic, byte[] payload) throws IOException {
+        PayloadCodec codec = forTopic(topic);
+        if (codec == jsonCodec && !CborCodec.looksLikeCbor(payload)) {
+            return payload;
+        }
+        return codec.encode(decode(payload));
+    }
+
+    /**
+     * 解码入站消息，按首字节识别CBOR或JSON
+     */
+    public JSONObject decode(byte[] payload) throws IOException {
+        if (CborCodec.looksLikeCbor(payload)) {
+            return cborCodec.decode(payload);
+        }
+        return jsonCodec.decode(payload);
+    }
+}
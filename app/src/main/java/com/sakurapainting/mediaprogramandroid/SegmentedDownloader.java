@@ -0,0 +1,325 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分段并行下载
+ * 单个TCP连接在高带宽时延积的链路上跑不满带宽，大文件按字节区间切分，
+ * 用多个连接并行请求各自的Range，按位置直接写入预先设定长度的文件（FileChannel定位写，无需加锁），
+ * 某一段失败只重试这一段剩余的部分。
+ * 每段内部顺序写入，所以“第一个未完成段之前”的数据是连续完整的：定期fsync后把这个位置报告为检查点，
+ * 下载失败时文件截到这个位置，调用方可以继续按单连接的方式从文件末尾续传。
+ */
+public class SegmentedDownloader {
+
+    private static final String TAG = "SegmentedDownloader";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final long RETRY_BASE_MS = 1000;
+    // 主线程检查进度并fsync的间隔
+    private static final long CHECKPOINT_INTERVAL_MS = 2000;
+
+    /**
+     * 下载进度回调，onProgress在下载线程上调用，onCheckpoint在调用download的线程上调用
+     */
+    public interface Listener {
+        /**
+         * @param written 本次已写入的字节数（各段合计）
+         */
+        void onProgress(long written);
+
+        /**
+         * @param contiguous 文件开头起连续完整且已fsync的字节数
+         */
+        void onCheckpoint(long contiguous);
+    }
+
+    /**
+     * 不可重试的错误：服务器不再按Range返回（文件已变化或不支持分段）
+     */
+    private static class FatalSegmentException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FatalSegmentException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个字节区间[start, end)，position之前的部分已写入
+     */
+    private static class Segment {
+        final long start;
+        final long end;
+        volatile long position;
+        int retries = 0;
+
+        Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.position = start;
+        }
+    }
+
+    private final int connections;
+    private final long segmentSize;
+    private final int maxSegmentRetries;
+
+    private final Set<HttpURLConnection> activeConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean aborted = false;
+    private volatile IOException failure;
+
+    private int segmentRetries = 0;
+
+    /**
+     * @param connections 并行连接数
+     * @param segmentSize 每段字节数
+     * @param maxSegmentRetries 单段最多重试次数，超过后整个下载失败
+     */
+    public SegmentedDownloader(int connections, long segmentSize, int maxSegmentRetries) {
+        this.connections = Math.max(1, connections);
+        this.segmentSize = Math.max(BUFFER_SIZE, segmentSize);
+        this.maxSegmentRetries = Math.max(0, maxSegmentRetries);
+    }
+
+    /**
+     * 中止下载：断开所有连接，让阻塞中的读取立即返回（可在任意线程调用，但会做网络操作，不要在主线程）
+     */
+    public void abort() {
+        aborted = true;
+        for (HttpURLConnection connection : activeConnections) {
+            connection.disconnect();
+        }
+    }
+
+    public synchronized int getSegmentRetries() {
+        return segmentRetries;
+    }
+
+    /**
+     * 下载[start, start + length)写入file，file中start之前的内容保持不变
+     * @param validator If-Range使用的ETag或Last-Modified，保证各段来自同一版本的文件
+     * @throws IOException 下载失败，file已截到连续完整的位置
+     */
+    public void download(final URL url, final String validator, File file, long start, long length,
+                         final Listener listener) throws IOException, InterruptedException {
+        final List<Segment> segments = new ArrayList<>();
+        for (long offset = start; offset < start + length; offset += segmentSize) {
+            segments.add(new Segment(offset, Math.min(start + length, offset + segmentSize)));
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        final List<Segment> queue = new ArrayList<>(segments);
+        long startTime = System.currentTimeMillis();
+        Log.i(TAG, "分段下载 " + length + " bytes，" + segments.size() + " 段，" + connections + " 个连接");
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // 预先设定文件长度，各段直接写到自己的位置
+            raf.setLength(start + length);
+            final FileChannel channel = raf.getChannel();
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, segments.size()),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "segment-download");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            for (int i = 0; i < Math.min(connections, segments.size()); i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Segment segment;
+                        while ((segment = next(queue)) != null) {
+                            if (!fetchWithRetry(url, validator, channel, segment, listener)) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+
+            try {
+                while (!executor.awaitTermination(CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    listener.onCheckpoint(checkpoint(channel, segments, start));
+                }
+            } catch (InterruptedException e) {
+                abort();
+                executor.shutdownNow();
+                throw e;
+            }
+
+            long contiguous = checkpoint(channel, segments, start);
+            if (failure == null && contiguous < start + length) {
+                failure = new IOException(aborted ? "分段下载被中止" : "分段下载未完成");
+            }
+            if (failure != null) {
+                // 截掉不连续的部分，调用方从连续完整的位置续传
+                raf.setLength(contiguous);
+                listener.onCheckpoint(contiguous);
+                throw failure;
+            }
+            listener.onCheckpoint(contiguous);
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+            Log.i(TAG, "分段下载完成，耗时 " + elapsed + "ms，" + (length * 1000 / 1024 / elapsed)
+                    + " KB/s，重试 " + getSegmentRetries() + " 次");
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Segment next(List<Segment> queue) {
+        synchronized (queue) {
+            return queue.isEmpty() ? null : queue.remove(0);
+        }
+    }
+
+    /**
+     * 下载一段，失败时退避后从已写入的位置重试
+     * @return 成功返回true；整个下载已失败或被中止返回false
+     */
+    private boolean fetchWithRetry(URL url, String validator, FileChannel channel, Segment segment,
+                                   Listener listener) {
+        while (true) {
+            if (aborted || failure != null) {
+                return false;
+            }
+            try {
+                fetch(url, validator, channel, segment, listener);
+                return true;
+            } catch (IOException e) {
+                if (aborted || failure != null) {
+                    return false;
+                }
+                if (e instanceof FatalSegmentException || segment.retries >= maxSegmentRetries) {
+                    fail(e);
+                    return false;
+                }
+                long delay = RETRY_BASE_MS << segment.retries;
+                segment.retries++;
+                synchronized (this) {
+                    segmentRetries++;
+                }
+                Log.w(TAG, "分段 " + segment.start + " 下载出错，" + delay + "ms 后从 " + segment.position
+                        + " 重试: " + e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private synchronized void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+            Log.e(TAG, "分段下载失败: " + e.getMessage());
+            // 其他连接没有必要继续
+            for (HttpURLConnection connection : activeConnections) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void fetch(URL url, String validator, FileChannel channel, Segment segment,
+                       Listener listener) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        InputStream input = null;
+        activeConnections.add(connection);
+        try {
+            if (aborted) {
+                throw new IOException("分段下载被中止");
+            }
+            TlsTransport.applyDefault(connection);
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestProperty("Range", "bytes=" + segment.position + "-" + (segment.end - 1));
+            if (validator != null) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new FatalSegmentException("分段请求返回 " + responseCode + "，文件可能已变化");
+            }
+            String range = connection.getHeaderField("Content-Range");
+            if (range == null || !range.startsWith("bytes " + segment.position + "-")) {
+                throw new FatalSegmentException("分段位置不一致: " + range);
+            }
+
+            input = connection.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (segment.position < segment.end) {
+                int count = input.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.position));
+                if (count == -1) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                long position = segment.position;
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                segment.position = position;
+                listener.onProgress(written.addAndGet(count));
+            }
+            if (segment.position < segment.end) {
+                throw new IOException("分段连接提前结束，" + segment.position + "/" + segment.end);
+            }
+        } finally {
+            activeConnections.remove(connection);
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * fsync文件，返回开头起连续完整的字节数（先读各段位置再fsync，报告的数据一定已落盘）
+     */
+    private static long checkpoint(FileChannel channel, List<Segment> segments, long start) throws IOException {
+        long contiguous = segments.isEmpty() ? start : segments.get(segments.size() - 1).end;
+        for (Segment segment : segments) {
+            long position = segment.position;
+            if (position < segment.end) {
+                contiguous = position;
+                break;
+            }
+        }
+        channel.force(false);
+        return contiguous;
+    }
+}
@@ -0,0 +1,198 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 定长磁盘环形缓冲区
+ * 离线期间保存心跳快照，文件大小固定为 头部 + 容量 * 槽大小，
+ * 写满后覆盖最旧的记录。每个槽保存 [长度][CRC32][数据]。
+ */
+public class TelemetryRingBuffer {
+
+    private static final String TAG = "TelemetryRingBuffer";
+
+    private static final int MAGIC = 0x54524231; // "TRB1"
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_HEADER_SIZE = 8;
+
+    /**
+     * 一次读出的连续记录
+     */
+    public static class Batch {
+        public final List<byte[]> records = new ArrayList<>();
+        int startHead;
+        int slots;
+    }
+
+    private final File file;
+    private final int capacity;
+    private final int slotSize;
+
+    private RandomAccessFile raf;
+    private int head = 0;   // 最旧记录所在槽
+    private int count = 0;  // 当前记录数
+    private long overwritten = 0;
+
+    public TelemetryRingBuffer(File file, int capacity, int slotSize) {
+        this.file = file;
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+    }
+
+    /**
+     * 打开缓冲文件；格式或尺寸不匹配时重建
+     */
+    public synchronized void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        raf = new RandomAccessFile(file, "rw");
+        long expectedLength = HEADER_SIZE + (long) capacity * slotSize;
+
+        if (raf.length() == expectedLength) {
+            raf.seek(0);
+            int magic = raf.readInt();
+            int storedCapacity = raf.readInt();
+            int storedSlotSize = raf.readInt();
+            int storedHead = raf.readInt();
+            int storedCount = raf.readInt();
+            if (magic == MAGIC && storedCapacity == capacity && storedSlotSize == slotSize
+                    && storedHead >= 0 && storedHead < capacity
+                    && storedCount >= 0 && storedCount <= capacity) {
+                head = storedHead;
+                count = storedCount;
+                Log.i(TAG, "环形缓冲区已打开，缓存记录: " + count);
+                return;
+            }
+        }
+
+        Log.i(TAG, "创建环形缓冲区: " + capacity + " x " + slotSize + " 字节");
+        raf.setLength(expectedLength);
+        head = 0;
+        count = 0;
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeInt(capacity);
+        raf.writeInt(slotSize);
+        raf.writeInt(head);
+        raf.writeInt(count);
+    }
+
+    private long slotOffset(int slot) {
+        return HEADER_SIZE + (long) slot * slotSize;
+    }
+
+    /**
+     * 追加一条记录，缓冲区满时覆盖最旧记录
+     * @return 记录超过槽大小或写入失败时返回false
+     */
+    public synchronized boolean append(byte[] record) {
+        if (raf == null) return false;
+        if (record.length > slotSize - SLOT_HEADER_SIZE) {
+            Log.w(TAG, "记录过大，无法写入: " + record.length + " 字节");
+            return false;
+        }
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(record);
+
+            int slot = (head + count) % capacity;
+            raf.seek(slotOffset(slot));
+            raf.writeInt(record.length);
+            raf.writeInt((int) crc.getValue());
+            raf.write(record);
+
+            if (count == capacity) {
+                head = (head + 1) % capacity;
+                overwritten++;
+            } else {
+                count++;
+            }
+            writeHeader();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "写入环形缓冲区失败", e);
+            return false;
+        }
+    }
+
+    /**
+     * 读取最旧的若干条记录（不移除），损坏的槽会被跳过
+     */
+    public synchronized Batch peek(int max) {
+        Batch batch = new Batch();
+        List<byte[]> records = batch.records;
+        batch.startHead = head;
+        if (raf == null) return batch;
+        int n = Math.min(max, count);
+        batch.slots = n;
+        try {
+            for (int i = 0; i < n; i++) {
+                raf.seek(slotOffset((head + i) % capacity));
+                int length = raf.readInt();
+                int checksum = raf.readInt();
+                if (length < 0 || length > slotSize - SLOT_HEADER_SIZE) {
+                    continue;
+                }
+                byte[] record = new byte[length];
+                raf.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() == checksum) {
+                    records.add(record);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "读取环形缓冲区失败", e);
+        }
+        return batch;
+    }
+
+    /**
+     * 移除已上传的批次；期间若有槽被新记录覆盖，只移除剩余部分
+     */
+    public synchronized void remove(Batch batch) {
+        if (raf == null) return;
+        int alreadyOverwritten = (head - batch.startHead + capacity) % capacity;
+        int remaining = batch.slots - alreadyOverwritten;
+        if (remaining <= 0) return;
+        int removed = Math.min(remaining, count);
+        head = (head + removed) % capacity;
+        count -= removed;
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            Log.e(TAG, "更新环形缓冲区头部失败", e);
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized long getOverwrittenCount() {
+        return overwritten;
+    }
+
+    public synchronized void close() {
+        if (raf == null) return;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            Log.w(TAG, "关闭环形缓冲区失败", e);
+        }
+        raf = null;
+    }
+}
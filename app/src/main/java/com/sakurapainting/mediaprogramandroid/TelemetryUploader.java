@@ -0,0 +1,215 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 离线遥测存储转发
+ * 断线期间把心跳快照写入磁盘环形缓冲区；重连后按固定速率分批上传，
+ * 每批为GZIP压缩的JSON，一批确认后才发下一批，避免大量终端同时恢复时冲击服务器。
+ */
+public class TelemetryUploader {
+
+    private static final String TAG = "TelemetryUploader";
+    // 批次上传失败后的重试间隔上限
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    private final TelemetryRingBuffer buffer;
+    private final MqttPublisher publisher;
+    private final String topic;
+    private final String deviceId;
+    private final String clientId;
+    private final int batchSize;
+    private final long batchIntervalMs;
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+
+    private volatile boolean flushing = false;
+    // 每次开始上传递增，旧的调度链发现代数变化后自行结束
+    private volatile int generation = 0;
+    private long uploadedRecords = 0;
+    private long uploadedBatches = 0;
+    // 当前批次连续失败次数（telemetry-io线程访问）
+    private int consecutiveFailures = 0;
+
+    public TelemetryUploader(TelemetryRingBuffer buffer, MqttPublisher publisher, String topic,
+                             String deviceId, String clientId, int batchSize, long batchIntervalMs) {
+        this.buffer = buffer;
+        this.publisher = publisher;
+        this.topic = topic;
+        this.deviceId = deviceId;
+        this.clientId = clientId;
+        this.batchSize = batchSize;
+        this.batchIntervalMs = batchIntervalMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "telemetry-io");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 保存一条离线心跳快照（异步写盘）
+     */
+    public void record(final byte[] snapshot) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (buffer.append(snapshot)) {
+                    Log.d(TAG, "离线心跳已缓存，共 " + buffer.size() + " 条");
+                }
+            }
+        });
+    }
+
+    /**
+     * 连接恢复后开始上传，首批加随机延迟以错开同时恢复的终端
+     */
+    public void startFlush() {
+        if (flushing) return;
+        flushing = true;
+        final int gen = ++generation;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (gen == generation) {
+                    consecutiveFailures = 0;
+                }
+            }
+        });
+        long delay = (long) (random.nextDouble() * batchIntervalMs);
+        scheduleNext(gen, delay);
+    }
+
+    /**
+     * 连接断开时停止上传，未上传的记录保留在缓冲区
+     */
+    public void stopFlush() {
+        flushing = false;
+    }
+
+    private void scheduleNext(final int gen, long delayMs) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushNext(gen);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 上传下一批（telemetry-io线程）
+     */
+    private void flushNext(final int gen) {
+        if (!flushing || gen != generation) return;
+        final TelemetryRingBuffer.Batch batch = buffer.peek(batchSize);
+        if (batch.records.isEmpty()) {
+            if (buffer.size() > 0) {
+                // 全部损坏的槽直接丢弃
+                buffer.remove(batch);
+                scheduleNext(gen, 0);
+            } else {
+                flushing = false;
+                Log.i(TAG, "离线心跳上传完成，共 " + uploadedRecords + " 条 / " + uploadedBatches + " 批");
+            }
+            return;
+        }
+
+        byte[] payload;
+        try {
+            payload = encodeBatch(batch.records);
+        } catch (IOException e) {
+            Log.e(TAG, "压缩离线心跳失败", e);
+            flushing = false;
+            return;
+        }
+
+        final int recordCount = batch.records.size();
+        publisher.publish(topic, payload, 1, new MqttPublisher.PublishCallback() {
+            @Override
+            public void onSuccess(String topic) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) return;
+                        consecutiveFailures = 0;
+                        buffer.remove(batch);
+                        uploadedRecords += recordCount;
+                        uploadedBatches++;
+                        Log.d(TAG, "离线心跳批次已上传: " + recordCount + " 条，剩余 " + buffer.size());
+                        scheduleNext(gen, batchIntervalMs);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(String topic, final String error) {
+                // 记录仍在缓冲区，退避后重发同一批；断线时stopFlush会结束这条调度链
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (gen != generation) return;
+                        consecutiveFailures++;
+                        long delay = retryDelay(consecutiveFailures);
+                        Log.w(TAG, "离线心跳批次上传失败: " + error + "，" + delay + "ms 后重试");
+                        scheduleNext(gen, delay);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 指数退避：batchIntervalMs × 2^(失败次数-1)，不超过MAX_RETRY_DELAY_MS
+     */
+    private long retryDelay(int failures) {
+        long delay = Math.max(batchIntervalMs, 1);
+        for (int i = 1; i < failures && delay < MAX_RETRY_DELAY_MS; i++) {
+            delay *= 2;
+        }
+        return Math.min(delay, MAX_RETRY_DELAY_MS);
+    }
+
+    /**
+     * 编码一批记录：{"type":"heartbeat_batch",...,"records":[...]}，整体GZIP压缩。
+     * 每条记录本身就是完整的心跳JSON，直接拼接，不重新解析
+     */
+    private byte[] encodeBatch(List<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(records.size() * 256);
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        try {
+            String header = "{\"type\":\"heartbeat_batch\",\"deviceId\":\"" + deviceId
+                    + "\",\"clientId\":\"" + clientId
+                    + "\",\"timestamp\":" + System.currentTimeMillis()
+                    + ",\"count\":" + records.size()
+                    + ",\"records\":[";
+            gzip.write(header.getBytes("UTF-8"));
+            for (int i = 0; i < records.size(); i++) {
+                if (i > 0) {
+                    gzip.write(',');
+                }
+                gzip.write(records.get(i));
+            }
+            gzip.write("]}".getBytes("UTF-8"));
+        } finally {
+            gzip.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+}
@@ -0,0 +1,553 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * TLS传输
+ * MQTT（ssl://）和内容下载（https://）共用一个SSLContext，因此共用同一个客户端会话缓存：
+ * 重连或再次下载同一服务器时用缓存的会话ID或会话票据恢复会话，省去证书交换和密钥协商，
+ * 在性能较弱的ARM板上能把每次握手从秒级降到几十毫秒。
+ * 同时统计完整握手和恢复握手的次数与耗时。
+ */
+public class TlsTransport {
+
+    private static final String TAG = "TlsTransport";
+
+    private static final int SESSION_CACHE_SIZE = 32;
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private static TlsTransport defaultInstance;
+
+    private final SSLContext sslContext;
+    private final SSLSocketFactory socketFactory;
+
+    // 指标
+    private long fullHandshakes = 0;
+    private long resumedHandshakes = 0;
+    private long failedHandshakes = 0;
+    private long fullHandshakeMs = 0;
+    private long resumedHandshakeMs = 0;
+    private long lastHandshakeMs = -1;
+    private boolean lastResumed = false;
+
+    /**
+     * 进程内共享的实例，使用系统信任的证书
+     */
+    public static synchronized TlsTransport getDefault() throws GeneralSecurityException {
+        if (defaultInstance == null) {
+            defaultInstance = new TlsTransport(null);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * 共享实例的握手指标，尚未使用过TLS时返回null
+     */
+    public static synchronized JSONObject getDefaultMetrics() {
+        return defaultInstance != null ? defaultInstance.getMetrics() : null;
+    }
+
+    /**
+     * HTTPS下载连接改用共享实例；初始化失败时保留系统默认的套接字工厂
+     */
+    public static void applyDefault(URLConnection connection) {
+        if (!(connection instanceof HttpsURLConnection)) return;
+        try {
+            getDefault().apply(connection);
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "初始化TLS上下文失败，使用系统默认", e);
+        }
+    }
+
+    /**
+     * @param trustManagers 信任的证书，null表示使用系统默认
+     */
+    public TlsTransport(TrustManager[] trustManagers) throws GeneralSecurityException {
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers, null);
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        if (sessions != null) {
+            sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        }
+        socketFactory = new TimedSocketFactory(sslContext.getSocketFactory());
+    }
+
+    /**
+     * MQTT（MqttConnectOptions.setSocketFactory）和HttpsURLConnection使用的套接字工厂
+     */
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * HTTPS连接改用共享的会话缓存；普通HTTP连接不受影响
+     */
+    public void apply(URLConnection connection) {
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory);
+        }
+    }
+
+    /**
+     * 记录一次握手；会话创建时间早于本次握手开始时间说明会话是从缓存恢复的
+     */
+    private synchronized void recordHandshake(SSLSession session, long startWallMs, long elapsedMs) {
+        boolean resumed = session != null && session.getCreationTime() < startWallMs;
+        lastHandshakeMs = elapsedMs;
+        lastResumed = resumed;
+        if (resumed) {
+            resumedHandshakes++;
+            resumedHandshakeMs += elapsedMs;
+        } else {
+            fullHandshakes++;
+            fullHandshakeMs += elapsedMs;
+        }
+    }
+
+    private synchronized void recordFailure() {
+        failedHandshakes++;
+    }
+
+    public synchronized long getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    public synchronized long getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    public synchronized long getLastHandshakeMs() {
+        return lastHandshakeMs;
+    }
+
+    /**
+     * 获取握手指标（用于状态上报）
+     */
+    public synchronized JSONObject getMetrics() {
+        JSONObject metrics = new JSONObject();
+        try {
+            metrics.put("full", fullHandshakes);
+            metrics.put("resumed", resumedHandshakes);
+            metrics.put("failed", failedHandshakes);
+            metrics.put("avgFullMs", fullHandshakes > 0 ? fullHandshakeMs / fullHandshakes : -1);
+            metrics.put("avgResumedMs", resumedHandshakes > 0 ? resumedHandshakeMs / resumedHandshakes : -1);
+            metrics.put("lastMs", lastHandshakeMs);
+            metrics.put("lastResumed", lastResumed);
+        } catch (JSONException e) {
+            Log.e(TAG, "创建TLS指标失败", e);
+        }
+        return metrics;
+    }
+
+    /**
+     * 开启会话票据（Android的OpenSSL实现支持，但默认关闭；其他实现没有此方法时忽略）
+     */
+    private static void enableSessionTickets(SSLSocket socket) {
+        try {
+            Method method = socket.getClass().getMethod("setUseSessionTickets", boolean.class);
+            method.invoke(socket, true);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 设置SNI主机名（API 24以下Paho无法通过SSLParameters设置，Android的OpenSSL实现提供此方法）
+     */
+    private static void setHostname(SSLSocket socket, String host) {
+        try {
+            Method method = socket.getClass().getMethod("setHostname", String.class);
+            method.invoke(socket, host);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * 套接字工厂：
+     * - 未连接的套接字（Paho）包装一层，在startHandshake中计时；
+     * - 在已连接套接字上叠加TLS（HttpsURLConnection）时直接返回原始套接字，
+     *   由握手完成监听器计时，HTTP客户端对具体实现类的反射调用不受影响。
+     */
+    private class TimedSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        TimedSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            SSLSocket socket = (SSLSocket) delegate.createSocket();
+            enableSessionTickets(socket);
+            return new TimedSocket(socket);
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return listen((SSLSocket) delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return listen((SSLSocket) delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return listen((SSLSocket) delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return listen((SSLSocket) delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return listen((SSLSocket) delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        /**
+         * 已连接的套接字：从现在到握手完成即握手耗时
+         */
+        private SSLSocket listen(SSLSocket socket) {
+            enableSessionTickets(socket);
+            final long startNanos = System.nanoTime();
+            final long startWallMs = System.currentTimeMillis();
+            socket.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                @Override
+                public void handshakeCompleted(HandshakeCompletedEvent event) {
+                    recordHandshake(event.getSession(), startWallMs, (System.nanoTime() - startNanos) / 1000000L);
+                }
+            });
+            return socket;
+        }
+    }
+
+    /**
+     * 对未连接的TLS套接字计时握手，其余调用全部转发
+     */
+    private class TimedSocket extends SSLSocket {
+
+        private final SSLSocket delegate;
+        private boolean handshakeTimed = false;
+
+        TimedSocket(SSLSocket delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint) throws IOException {
+            connect(endpoint, 0);
+        }
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            delegate.connect(endpoint, timeout);
+            if (endpoint instanceof InetSocketAddress) {
+                setHostname(delegate, ((InetSocketAddress) endpoint).getHostString());
+            }
+        }
+
+        @Override
+        public void startHandshake() throws IOException {
+            if (handshakeTimed) {
+                delegate.startHandshake();
+                return;
+            }
+            handshakeTimed = true;
+            long startNanos = System.nanoTime();
+            long startWallMs = System.currentTimeMillis();
+            try {
+                delegate.startHandshake();
+            } catch (IOException e) {
+                recordFailure();
+                throw e;
+            }
+            recordHandshake(delegate.getSession(), startWallMs, (System.nanoTime() - startNanos) / 1000000L);
+        }
+
+        @Override
+        public SSLSession getSession() {
+            return delegate.getSession();
+        }
+
+        @Override
+        public SSLParameters getSSLParameters() {
+            return delegate.getSSLParameters();
+        }
+
+        @Override
+        public void setSSLParameters(SSLParameters params) {
+            delegate.setSSLParameters(params);
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public String[] getEnabledCipherSuites() {
+            return delegate.getEnabledCipherSuites();
+        }
+
+        @Override
+        public void setEnabledCipherSuites(String[] suites) {
+            delegate.setEnabledCipherSuites(suites);
+        }
+
+        @Override
+        public String[] getSupportedProtocols() {
+            return delegate.getSupportedProtocols();
+        }
+
+        @Override
+        public String[] getEnabledProtocols() {
+            return delegate.getEnabledProtocols();
+        }
+
+        @Override
+        public void setEnabledProtocols(String[] protocols) {
+            delegate.setEnabledProtocols(protocols);
+        }
+
+        @Override
+        public void addHandshakeCompletedListener(HandshakeCompletedListener listener) {
+            delegate.addHandshakeCompletedListener(listener);
+        }
+
+        @Override
+        public void removeHandshakeCompletedListener(HandshakeCompletedListener listener) {
+            delegate.removeHandshakeCompletedListener(listener);
+        }
+
+        @Override
+        public void setUseClientMode(boolean mode) {
+            delegate.setUseClientMode(mode);
+        }
+
+        @Override
+        public boolean getUseClientMode() {
+            return delegate.getUseClientMode();
+        }
+
+        @Override
+        public void setNeedClientAuth(boolean need) {
+            delegate.setNeedClientAuth(need);
+        }
+
+        @Override
+        public boolean getNeedClientAuth() {
+            return delegate.getNeedClientAuth();
+        }
+
+        @Override
+        public void setWantClientAuth(boolean want) {
+            delegate.setWantClientAuth(want);
+        }
+
+        @Override
+        public boolean getWantClientAuth() {
+            return delegate.getWantClientAuth();
+        }
+
+        @Override
+        public void setEnableSessionCreation(boolean flag) {
+            delegate.setEnableSessionCreation(flag);
+        }
+
+        @Override
+        public boolean getEnableSessionCreation() {
+            return delegate.getEnableSessionCreation();
+        }
+
+        @Override
+        public void bind(SocketAddress bindpoint) throws IOException {
+            delegate.bind(bindpoint);
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return delegate.getInetAddress();
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return delegate.getLocalAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return delegate.getPort();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return delegate.getLocalPort();
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return delegate.getRemoteSocketAddress();
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            return delegate.getLocalSocketAddress();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return delegate.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return delegate.getOutputStream();
+        }
+
+        @Override
+        public void setTcpNoDelay(boolean on) throws SocketException {
+            delegate.setTcpNoDelay(on);
+        }
+
+        @Override
+        public boolean getTcpNoDelay() throws SocketException {
+            return delegate.getTcpNoDelay();
+        }
+
+        @Override
+        public void setSoLinger(boolean on, int linger) throws SocketException {
+            delegate.setSoLinger(on, linger);
+        }
+
+        @Override
+        public int getSoLinger() throws SocketException {
+            return delegate.getSoLinger();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws SocketException {
+            delegate.setSoTimeout(timeout);
+        }
+
+        @Override
+        public int getSoTimeout() throws SocketException {
+            return delegate.getSoTimeout();
+        }
+
+        @Override
+        public void setSendBufferSize(int size) throws SocketException {
+            delegate.setSendBufferSize(size);
+        }
+
+        @Override
+        public int getSendBufferSize() throws SocketException {
+            return delegate.getSendBufferSize();
+        }
+
+        @Override
+        public void setReceiveBufferSize(int size) throws SocketException {
+            delegate.setReceiveBufferSize(size);
+        }
+
+        @Override
+        public int getReceiveBufferSize() throws SocketException {
+            return delegate.getReceiveBufferSize();
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) throws SocketException {
+            delegate.setKeepAlive(on);
+        }
+
+        @Override
+        public boolean getKeepAlive() throws SocketException {
+            return delegate.getKeepAlive();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public void shutdownInput() throws IOException {
+            delegate.shutdownInput();
+        }
+
+        @Override
+        public void shutdownOutput() throws IOException {
+            delegate.shutdownOutput();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public boolean isBound() {
+            return delegate.isBound();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return delegate.isClosed();
+        }
+
+        @Override
+        public boolean isInputShutdown() {
+            return delegate.isInputShutdown();
+        }
+
+        @Override
+        public boolean isOutputShutdown() {
+            return delegate.isOutputShutdown();
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
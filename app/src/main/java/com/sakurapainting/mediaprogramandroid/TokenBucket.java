@@ -0,0 +1,46 @@
+package com.sakurapainting.mediaprogramandroid;
+
+/**
+ * 令牌桶
+ * 最多积攒capacity个令牌，每refillIntervalMs补充一个；没有令牌时返回需要等待的时间。
+ * 使用单调时钟，不受系统时间调整影响。
+ */
+public class TokenBucket {
+
+    private final int capacity;
+    private final long refillIntervalNanos;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(int capacity, long refillIntervalMs) {
+        this.capacity = Math.max(1, capacity);
+        this.refillIntervalNanos = Math.max(1, refillIntervalMs) * 1000000L;
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试取出一个令牌
+     * @return 0表示已取得令牌；否则为下一个令牌可用前需要等待的毫秒数（此时不消耗令牌）
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) * refillIntervalNanos / 1000000.0);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (double) (now - lastRefillNanos) / refillIntervalNanos);
+        lastRefillNanos = now;
+    }
+
+    public synchronized int getAvailableTokens() {
+        refill();
+        return (int) tokens;
+    }
+}
@@ -0,0 +1,160 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 主题路由器
+ * 启动时把主题过滤器（支持MQTT的 + 和 # 通配符）编译成按层级组织的字典树，
+ * 收到消息时按层级遍历一次即可找到所有匹配的处理器。
+ * 注册应在连接前完成，之后只读，可在多个工作线程上并发路由。
+ */
+public class TopicRouter implements InboundDispatcher.MessageHandler {
+
+    private static final String TAG = "TopicRouter";
+
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+
+    /**
+     * 字典树节点，对应主题中的一个层级
+     */
+    private static class Node {
+        final HashMap<String, Node> children = new HashMap<>();
+        Node singleLevel;
+        // 过滤器在此层级结束时的处理器
+        final List<InboundDispatcher.MessageHandler> handlers = new ArrayList<>();
+        // 以 # 结尾的过滤器，匹配此层级及所有子层级
+        final List<InboundDispatcher.MessageHandler> multiLevelHandlers = new ArrayList<>();
+    }
+
+    private final Node root = new Node();
+    private int filterCount = 0;
+
+    /**
+     * 注册主题过滤器
+     * @throws IllegalArgumentException 过滤器格式不合法
+     */
+    public synchronized void register(String filter, InboundDispatcher.MessageHandler handler) {
+        if (filter == null || filter.isEmpty()) {
+            throw new IllegalArgumentException("主题过滤器不能为空");
+        }
+
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            String level = end < 0 ? filter.substring(start) : filter.substring(start, end);
+
+            if (MULTI_LEVEL.equals(level)) {
+                if (end >= 0) {
+                    throw new IllegalArgumentException("# 只能出现在过滤器末尾: " + filter);
+                }
+                node.multiLevelHandlers.add(handler);
+                break;
+            }
+            if (level.indexOf('#') >= 0 || (level.indexOf('+') >= 0 && !SINGLE_LEVEL.equals(level))) {
+                throw new IllegalArgumentException("通配符必须独占一个层级: " + filter);
+            }
+
+            Node next;
+            if (SINGLE_LEVEL.equals(level)) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = new Node();
+                }
+                next = node.singleLevel;
+            } else {
+                next = node.children.get(level);
+                if (next == null) {
+                    next = new Node();
+                    node.children.put(level, next);
+                }
+            }
+            node = next;
+
+            if (end < 0) {
+                node.handlers.add(handler);
+                break;
+            }
+            start = end + 1;
+        }
+
+        filterCount++;
+        Log.i(TAG, "注册主题过滤器: " + filter);
+    }
+
+    /**
+     * 查找与主题匹配的所有处理器
+     */
+    public List<InboundDispatcher.MessageHandler> match(String topic) {
+        List<InboundDispatcher.MessageHandler> matched = new ArrayList<>(2);
+        // 以 $ 开头的系统主题不匹配首层通配符
+        boolean systemTopic = topic.startsWith("$");
+
+        List<Node> current = new ArrayList<>(2);
+        List<Node> next = new ArrayList<>(2);
+        current.add(root);
+
+        int start = 0;
+        boolean firstLevel = true;
+        while (!current.isEmpty()) {
+            int end = topic.indexOf('/', start);
+            String level = end < 0 ? topic.substring(start) : topic.substring(start, end);
+            boolean wildcardAllowed = !(firstLevel && systemTopic);
+
+            for (int i = 0; i < current.size(); i++) {
+                Node node = current.get(i);
+                if (wildcardAllowed) {
+                    matched.addAll(node.multiLevelHandlers);
+                }
+                Node child = node.children.get(level);
+                if (child != null) {
+                    next.add(child);
+                }
+                if (wildcardAllowed && node.singleLevel != null) {
+                    next.add(node.singleLevel);
+                }
+            }
+
+            if (end < 0) {
+                // 最后一层：收集结束于此的处理器，以及 "a/#" 对 "a" 的匹配
+                for (int i = 0; i < next.size(); i++) {
+                    Node node = next.get(i);
+                    matched.addAll(node.handlers);
+                    matched.addAll(node.multiLevelHandlers);
+                }
+                break;
+            }
+
+            List<Node> swap = current;
+            current = next;
+            next = swap;
+            next.clear();
+            start = end + 1;
+            firstLevel = false;
+        }
+        return matched;
+    }
+
+    /**
+     * 把消息路由给所有匹配的处理器
+     */
+    @Override
+    public void handle(String topic, byte[] payload) {
+        List<InboundDispatcher.MessageHandler> handlers = match(topic);
+        if (handlers.isEmpty()) {
+            Log.w(TAG, "没有匹配的处理器: " + topic);
+            return;
+        }
+        for (int i = 0; i < handlers.size(); i++) {
+            handlers.get(i).handle(topic, payload);
+        }
+    }
+
+    public int getFilterCount() {
+        return filterCount;
+    }
+}
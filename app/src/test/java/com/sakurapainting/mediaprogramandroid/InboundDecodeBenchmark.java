@@ -0,0 +1,118 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.json.JSONObject;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * 入站消息解码的分配量对比：
+ * 旧路径（载荷转String + 构建JSONObject树 + 读取字段）与流式解码到复用对象。
+ */
+public class InboundDecodeBenchmark {
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 50000;
+
+    private static final byte[] CONTENT_PUSH = ("{\"type\":\"content_push\",\"timestamp\":1718000000000,"
+            + "\"data\":{\"contentId\":\"c-20240610-0042\",\"fileUrl\":\"http://10.0.0.2:8080/media/promo_summer.mp4\","
+            + "\"type\":\"video\",\"title\":\"夏季促销\",\"description\":\"大厅主屏循环播放，\\\"限时\\\"活动\","
+            + "\"format\":\"mp4\",\"duration\":120,\"priority\":3,"
+            + "\"schedule\":{\"start\":\"2024-06-10T08:00:00\",\"end\":\"2024-06-30T22:00:00\",\"repeat\":true},"
+            + "\"targets\":[\"hall-1\",\"hall-2\",\"lobby\"]}}").getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] COMMAND = ("{\"type\":\"command\",\"timestamp\":1718000000000,"
+            + "\"data\":{\"command\":\"get_status\",\"requestId\":\"r-7781\"}}").getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void streamingDecodeMatchesJsonObject() throws Exception {
+        ContentPushMessage message = new ContentPushMessage();
+        message.decode(CONTENT_PUSH);
+
+        JSONObject data = new JSONObject(new String(CONTENT_PUSH, StandardCharsets.UTF_8)).getJSONObject("data");
+        assertEquals(data.getString("contentId"), message.contentId);
+        assertEquals(data.getString("fileUrl"), message.fileUrl);
+        assertEquals(data.getString("type"), message.type);
+        assertEquals(data.getString("title"), message.title);
+        assertEquals(data.getString("description"), message.description);
+        assertEquals(data.getInt("duration"), message.duration);
+        assertTrue(message.isValid());
+
+        CommandMessage command = new CommandMessage();
+        command.decode(COMMAND);
+        assertEquals("get_status", command.command);
+        assertEquals("r-7781", command.getData().getString("requestId"));
+    }
+
+    @Test
+    public void streamingDecodeAllocatesLess() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadBean();
+        Assume.assumeTrue(threads != null && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+
+        ContentPushMessage contentMessage = new ContentPushMessage();
+        CommandMessage commandMessage = new CommandMessage();
+        long sink = 0;
+
+        for (int i = 0; i < WARMUP; i++) {
+            sink += decodeWithJsonObject();
+            sink += decodeStreaming(contentMessage, commandMessage);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += decodeWithJsonObject();
+        }
+        long jsonObjectBytes = (threads.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += decodeStreaming(contentMessage, commandMessage);
+        }
+        long streamingBytes = (threads.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+
+        // sink参与断言，避免解码结果被当作无用代码优化掉
+        assertTrue(sink > 0);
+        assertTrue("流式解码应至少减少一半分配：JSONObject " + jsonObjectBytes + " 字节, 流式 "
+                + streamingBytes + " 字节", streamingBytes * 2 < jsonObjectBytes);
+    }
+
+    /**
+     * 旧路径：与改动前messageArrived/ContentManager的处理方式一致
+     */
+    private static long decodeWithJsonObject() throws Exception {
+        JSONObject push = new JSONObject(new String(CONTENT_PUSH, "UTF-8"));
+        JSONObject data = push.getJSONObject("data");
+        long n = data.getString("contentId").length() + data.getString("fileUrl").length()
+                + data.getString("type").length() + data.optString("title", "").length()
+                + data.optString("format", "").length() + data.optInt("duration", 0);
+
+        JSONObject command = new JSONObject(new String(COMMAND, "UTF-8"));
+        n += command.getJSONObject("data").getString("command").length();
+        return n;
+    }
+
+    private static long decodeStreaming(ContentPushMessage contentMessage, CommandMessage commandMessage)
+            throws Exception {
+        contentMessage.decode(CONTENT_PUSH);
+        long n = contentMessage.contentId.length() + contentMessage.fileUrl.length()
+                + contentMessage.type.length() + contentMessage.title.length()
+                + contentMessage.format.length() + contentMessage.duration;
+
+        commandMessage.decode(COMMAND);
+        n += commandMessage.command.length();
+        return n;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return (com.sun.management.ThreadMXBean) bean;
+        }
+        return null;
+    }
+}
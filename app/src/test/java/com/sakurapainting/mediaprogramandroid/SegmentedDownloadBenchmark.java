@@ -0,0 +1,196 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段下载与现有单连接下载的吞吐量对比。
+ * 本地HTTP服务器替身支持Range/If-Range，每个连接限速并在响应前加固定延迟，
+ * 模拟高带宽时延积链路上单个TCP连接跑不满带宽的情况。
+ * 耗时受机器负载影响，默认不运行，只报告结果不做断言，按需运行：
+ * ./gradlew :app:testDebugUnitTest -Dbenchmark=true --tests '*SegmentedDownloadBenchmark'
+ * 结果通过java.util.logging输出，见测试报告中该用例的标准错误输出。
+ */
+public class SegmentedDownloadBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(SegmentedDownloadBenchmark.class.getName());
+
+    private static final int FILE_SIZE = 24 * 1024 * 1024;
+    // 每个连接的速率上限及每个请求的首字节延迟
+    private static final long BYTES_PER_SECOND = 4 * 1024 * 1024;
+    private static final long LATENCY_MS = 100;
+    private static final String ETAG = "\"bench-v1\"";
+
+    private static final int CONNECTIONS = 4;
+    private static final long SEGMENT_SIZE = 2 * 1024 * 1024;
+
+    private byte[] content;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private URL url;
+    private File target;
+
+    @Before
+    public void startServer() throws Exception {
+        Assume.assumeTrue("基准测试默认跳过，使用 -Dbenchmark=true 运行", Boolean.getBoolean("benchmark"));
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/media.mp4", this::serve);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/media.mp4");
+        target = File.createTempFile("segmented", ".part");
+    }
+
+    @After
+    public void stopServer() {
+        if (server == null) {
+            return;
+        }
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        target.delete();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            Thread.sleep(LATENCY_MS);
+        } catch (InterruptedException e) {
+            return;
+        }
+        long start = 0;
+        long end = content.length - 1;
+        boolean partial = false;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && range.startsWith("bytes=") && (ifRange == null || ETAG.equals(ifRange))) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            partial = true;
+        }
+
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        long length = end - start + 1;
+        if (partial) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+        exchange.sendResponseHeaders(partial ? 206 : 200, length);
+
+        long limit = length;
+        OutputStream out = exchange.getResponseBody();
+        long began = System.nanoTime();
+        long sent = 0;
+        try {
+            while (sent < limit) {
+                int chunk = (int) Math.min(16 * 1024, limit - sent);
+                out.write(content, (int) (start + sent), chunk);
+                sent += chunk;
+                long due = sent * 1000000000L / BYTES_PER_SECOND - (System.nanoTime() - began);
+                if (due > 0) {
+                    Thread.sleep(due / 1000000L, (int) (due % 1000000L));
+                }
+            }
+            out.flush();
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            // 客户端断开
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 与ContentManager.VideoDownloadTask的单连接路径相同：一个连接，4KB缓冲循环写文件
+     */
+    private void downloadSingleStream() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(15000);
+        connection.setReadTimeout(30000);
+        assertEquals(200, connection.getResponseCode());
+        InputStream input = connection.getInputStream();
+        FileOutputStream output = new FileOutputStream(target);
+        try {
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            output.flush();
+        } finally {
+            output.close();
+            input.close();
+            connection.disconnect();
+        }
+    }
+
+    private void downloadSegmented() throws Exception {
+        SegmentedDownloader downloader = new SegmentedDownloader(CONNECTIONS, SEGMENT_SIZE, 3);
+        downloader.download(url, ETAG, target, 0, content.length, new SegmentedDownloader.Listener() {
+            @Override
+            public void onProgress(long written) {
+            }
+
+            @Override
+            public void onCheckpoint(long contiguous) {
+            }
+        });
+    }
+
+    private void assertTargetMatches() throws IOException {
+        assertTrue("下载内容与源文件不一致", Arrays.equals(content, Files.readAllBytes(target.toPath())));
+    }
+
+    private static double mbps(long bytes, long nanos) {
+        return bytes / 1024.0 / 1024.0 / (nanos / 1e9);
+    }
+
+    @Test
+    public void compareThroughput() throws Exception {
+        long begin = System.nanoTime();
+        downloadSingleStream();
+        long singleNanos = System.nanoTime() - begin;
+        assertTargetMatches();
+
+        target.delete();
+        begin = System.nanoTime();
+        downloadSegmented();
+        long segmentedNanos = System.nanoTime() - begin;
+        assertTargetMatches();
+
+        double single = mbps(content.length, singleNanos);
+        double segmented = mbps(content.length, segmentedNanos);
+        LOG.info(String.format("下载 %d MB：单连接 %.1f MB/s，%d 连接分段 %.1f MB/s",
+                content.length / 1024 / 1024, single, CONNECTIONS, segmented));
+    }
+}
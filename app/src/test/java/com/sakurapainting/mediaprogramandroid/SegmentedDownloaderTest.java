@@ -0,0 +1,165 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分段下载：单段失败重试、从已有前缀续传、文件变化时失败并只保留连续完整的部分。
+ * 本地HTTP服务器替身支持Range/If-Range，可让指定的Range请求中途断开。
+ */
+public class SegmentedDownloaderTest {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+    private static final String ETAG = "\"bench-v1\"";
+
+    private static final int CONNECTIONS = 4;
+    private static final long SEGMENT_SIZE = 2 * 1024 * 1024;
+
+    private byte[] content;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private URL url;
+    private File target;
+
+    // 故障注入：起始位置等于该值的下一个Range请求只发送一半就断开
+    private final AtomicLong dropRangeStart = new AtomicLong(-1);
+
+    @Before
+    public void startServer() throws Exception {
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/media.mp4", this::serve);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/media.mp4");
+        target = File.createTempFile("segmented", ".part");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        target.delete();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        long start = 0;
+        long end = content.length - 1;
+        boolean partial = false;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && range.startsWith("bytes=") && (ifRange == null || ETAG.equals(ifRange))) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            if (!bounds[1].isEmpty()) {
+                end = Math.min(end, Long.parseLong(bounds[1]));
+            }
+            partial = true;
+        }
+
+        exchange.getResponseHeaders().set("ETag", ETAG);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        long length = end - start + 1;
+        if (partial) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+        }
+        exchange.sendResponseHeaders(partial ? 206 : 200, length);
+
+        long limit = length;
+        if (partial && dropRangeStart.compareAndSet(start, -1)) {
+            limit = length / 2;
+        }
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(content, (int) start, (int) limit);
+            out.flush();
+        } catch (IOException e) {
+            // 客户端断开
+        } finally {
+            // 没发够长度时关闭会断开连接，客户端读到提前结束
+            exchange.close();
+        }
+    }
+
+    private SegmentedDownloader downloadSegmented(long start) throws Exception {
+        SegmentedDownloader downloader = new SegmentedDownloader(CONNECTIONS, SEGMENT_SIZE, 3);
+        downloader.download(url, ETAG, target, start, content.length - start, new SegmentedDownloader.Listener() {
+            @Override
+            public void onProgress(long written) {
+            }
+
+            @Override
+            public void onCheckpoint(long contiguous) {
+            }
+        });
+        return downloader;
+    }
+
+    private void assertTargetMatches() throws IOException {
+        assertTrue("下载内容与源文件不一致", Arrays.equals(content, Files.readAllBytes(target.toPath())));
+    }
+
+    @Test
+    public void failedSegmentIsRetriedFromItsPosition() throws Exception {
+        dropRangeStart.set(3 * SEGMENT_SIZE);
+        SegmentedDownloader downloader = downloadSegmented(0);
+        assertTargetMatches();
+        assertEquals(1, downloader.getSegmentRetries());
+    }
+
+    @Test
+    public void resumesAfterExistingPrefix() throws Exception {
+        long prefix = 5 * 1024 * 1024 + 123;
+        FileOutputStream output = new FileOutputStream(target);
+        try {
+            output.write(content, 0, (int) prefix);
+        } finally {
+            output.close();
+        }
+        downloadSegmented(prefix);
+        assertTargetMatches();
+    }
+
+    @Test
+    public void changedFileFailsAndKeepsOnlyContiguousPrefix() throws Exception {
+        SegmentedDownloader downloader = new SegmentedDownloader(CONNECTIONS, SEGMENT_SIZE, 3);
+        try {
+            downloader.download(url, "\"stale\"", target, 0, content.length, new SegmentedDownloader.Listener() {
+                @Override
+                public void onProgress(long written) {
+                }
+
+                @Override
+                public void onCheckpoint(long contiguous) {
+                }
+            });
+            fail("文件已变化时分段下载应失败");
+        } catch (IOException expected) {
+            // 服务器忽略If-Range不匹配的Range，返回完整内容
+        }
+        assertEquals(0, target.length());
+    }
+}
@@ -0,0 +1,171 @@
+package com.sakurapainting.mediaprogramandroid;
+
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * TLS会话恢复：本地起一个只会应答CONNECT/PINGREQ的TLS代理替身，
+ * 同一个TlsTransport连续连接两次，第二次应恢复会话而不是完整握手。
+ */
+public class TlsTransportTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private KeyStore keyStore;
+    private SSLServerSocket serverSocket;
+    private Thread acceptThread;
+
+    @Before
+    public void startBroker() throws Exception {
+        keyStore = KeyStore.getInstance("PKCS12");
+        InputStream in = getClass().getClassLoader().getResourceAsStream("tls-test.p12");
+        assertNotNull("缺少测试证书 tls-test.p12", in);
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(kmf.getKeyManagers(), null, null);
+
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory()
+                .createServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        Thread session = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "tls-broker-session");
+                        session.setDaemon(true);
+                        session.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        }, "tls-broker");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @After
+    public void stopBroker() throws Exception {
+        serverSocket.close();
+        acceptThread.join(1000);
+    }
+
+    /**
+     * 最小MQTT应答：CONNECT回CONNACK，PINGREQ回PINGRESP，DISCONNECT或断开即结束
+     */
+    private static void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                int type = in.read();
+                if (type < 0) break;
+                int length = 0;
+                int multiplier = 1;
+                int digit;
+                do {
+                    digit = in.readUnsignedByte();
+                    length += (digit & 0x7F) * multiplier;
+                    multiplier *= 128;
+                } while ((digit & 0x80) != 0);
+                in.skipBytes(length);
+
+                int packet = type & 0xF0;
+                if (packet == 0x10) {
+                    out.write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                } else if (packet == 0xC0) {
+                    out.write(new byte[]{(byte) 0xD0, 0x00});
+                } else if (packet == 0xE0) {
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private TlsTransport newTransport() throws Exception {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        return new TlsTransport(tmf.getTrustManagers());
+    }
+
+    private void connectAndDisconnect(TlsTransport transport) throws Exception {
+        String url = "ssl://127.0.0.1:" + serverSocket.getLocalPort();
+        MqttAsyncClient client = new MqttAsyncClient(url, "tls-test", new MemoryPersistence());
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setSocketFactory(transport.getSocketFactory());
+        options.setConnectionTimeout(10);
+        try {
+            client.connect(options).waitForCompletion(10000);
+            assertTrue(client.isConnected());
+            client.disconnect().waitForCompletion(5000);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void secondConnectResumesSession() throws Exception {
+        TlsTransport transport = newTransport();
+
+        connectAndDisconnect(transport);
+        assertEquals(1, transport.getFullHandshakes());
+        assertEquals(0, transport.getResumedHandshakes());
+        long fullMs = transport.getLastHandshakeMs();
+
+        connectAndDisconnect(transport);
+        assertEquals(1, transport.getFullHandshakes());
+        assertEquals(1, transport.getResumedHandshakes());
+        long resumedMs = transport.getLastHandshakeMs();
+
+        // 耗时只检查已记录，不比较快慢（本机回环上差异不稳定）
+        assertTrue(fullMs >= 0);
+        assertTrue(resumedMs >= 0);
+    }
+
+    @Test
+    public void separateTransportsDoNotShareSessions() throws Exception {
+        connectAndDisconnect(newTransport());
+        TlsTransport other = newTransport();
+        connectAndDisconnect(other);
+        assertEquals(1, other.getFullHandshakes());
+        assertEquals(0, other.getResumedHandshakes());
+    }
+}